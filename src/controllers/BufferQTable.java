@@ -0,0 +1,145 @@
+package controllers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * QTable sobre un ByteBuffer con registros de 40 bytes (clave+1 y los cuatro
+ * Q-values), el formato de registros de PolicyFile. Sirve tanto sobre un
+ * fichero mapeado, que se usa tal cual sin deserializar, como sobre memoria
+ * del heap. Cuando se llena pasa a un buffer del heap del doble de tamaño, y
+ * un buffer de sólo lectura se copia al heap al primer cambio, así que el
+ * fichero nunca se modifica.
+ */
+public class BufferQTable implements QTable {
+    public static final int RECORD_BYTES = 8 + 8 * ACTIONS;
+    static final double MAX_LOAD = 0.6;
+
+    private ByteBuffer records;
+    private int capacity;
+    private int mask;
+    private int size;
+
+    /** Tabla vacía en el heap, dimensionada para 'expectedStates' estados. */
+    public BufferQTable(int expectedStates) {
+        this(ByteBuffer.allocate(capacityFor(expectedStates) * RECORD_BYTES), capacityFor(expectedStates), 0);
+    }
+
+    /**
+     * Tabla sobre registros ya escritos, como los de un PolicyFile mapeado.
+     * @param capacity número de registros, potencia de dos
+     * @param size número de registros ocupados
+     */
+    BufferQTable(ByteBuffer records, int capacity, int size) {
+        this.records = records;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = size;
+    }
+
+    static int capacityFor(int expectedStates) {
+        return Integer.highestOneBit((int) Math.max(16, expectedStates / MAX_LOAD) * 2 - 1);
+    }
+
+    /** Copia compacta de cualquier QTable. */
+    public static BufferQTable copyOf(QTable source) {
+        BufferQTable result = new BufferQTable(source.size());
+        for (int i = 0; i < source.capacity(); i++) {
+            long key = source.getKey(i);
+            if (key == EMPTY) continue;
+            int slot = ~result.getOrInsert(key);
+            for (int action = 0; action < ACTIONS; action++) result.set(slot, action, source.get(i, action));
+        }
+        return result;
+    }
+
+    /** Los registros, desde la posición 0, tal como se escriben en un PolicyFile. */
+    ByteBuffer records() {
+        ByteBuffer result = records.duplicate();
+        result.clear();
+        return result;
+    }
+
+    @Override
+    public int find(long state) {
+        int slot = PrimitiveQTable.hash(state) & mask;
+        long stored;
+        while ((stored = records.getLong(slot * RECORD_BYTES)) != 0) {
+            if (stored == state + 1) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getOrInsert(long state) {
+        int slot = PrimitiveQTable.hash(state) & mask;
+        long stored;
+        while ((stored = records.getLong(slot * RECORD_BYTES)) != 0) {
+            if (stored == state + 1) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            grow();
+            slot = PrimitiveQTable.hash(state) & mask;
+            while (records.getLong(slot * RECORD_BYTES) != 0) slot = (slot + 1) & mask;
+        } else if (records.isReadOnly()) {
+            copyToHeap();
+        }
+        records.putLong(slot * RECORD_BYTES, state + 1);
+        size++;
+        return ~slot;
+    }
+
+    private void copyToHeap() {
+        ByteBuffer copy = ByteBuffer.allocate(capacity * RECORD_BYTES);
+        copy.put(records());
+        records = copy;
+    }
+
+    private void grow() {
+        ByteBuffer old = records;
+        int oldCapacity = capacity;
+        records = ByteBuffer.allocate(oldCapacity * 2 * RECORD_BYTES);
+        capacity = oldCapacity * 2;
+        mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long stored = old.getLong(i * RECORD_BYTES);
+            if (stored == 0) continue;
+            int slot = PrimitiveQTable.hash(stored - 1) & mask;
+            while (records.getLong(slot * RECORD_BYTES) != 0) slot = (slot + 1) & mask;
+            for (int b = 0; b < RECORD_BYTES; b += 8) records.putLong(slot * RECORD_BYTES + b, old.getLong(i * RECORD_BYTES + b));
+        }
+    }
+
+    @Override
+    public double get(int slot, int action) { return records.getDouble(slot * RECORD_BYTES + 8 + 8 * action); }
+
+    @Override
+    public void set(int slot, int action, double value) {
+        if (records.isReadOnly()) copyToHeap();
+        records.putDouble(slot * RECORD_BYTES + 8 + 8 * action, value);
+    }
+
+    @Override
+    public double max(int slot) {
+        int base = slot * RECORD_BYTES + 8;
+        double result = records.getDouble(base);
+        for (int i = 1; i < ACTIONS; i++) {
+            double v = records.getDouble(base + 8 * i);
+            if (v > result) result = v;
+        }
+        return result;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public int capacity() { return capacity; }
+
+    @Override
+    public long getKey(int slot) { return records.getLong(slot * RECORD_BYTES) - 1; }
+
+    @Override
+    public long getMemoryBytes() { return (long) capacity * RECORD_BYTES; }
+}
@@ -0,0 +1,296 @@
+package controllers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * QTable que varios hilos pueden leer y actualizar a la vez, para entrenar
+ * al estilo Hogwild. Las claves se insertan con CAS sobre su slot y cada
+ * Q-value (un double guardado como long) se actualiza con un bucle de CAS,
+ * así que ninguna actualización se pierde aunque no haya bloqueos por
+ * estado.
+ *
+ * Las operaciones no toman ningún lock compartido: leen una vez la
+ * referencia a los arrays y trabajan sobre ellos. Sólo crecer se hace bajo
+ * un lock, que no toma nadie más (tampoco snapshot()). Al copiar, cada slot de la tabla vieja se
+ * marca como movido con un CAS (las claves libres y los valores), así que
+ * una escritura en la tabla vieja o llega antes y se copia, o falla al ver
+ * la marca. Quien ve una marca espera a que acabe el crecimiento y repite
+ * la operación en la tabla nueva.
+ *
+ * Los métodos por slot de QTable sólo son seguros cuando ningún otro hilo
+ * escribe, por ejemplo para guardar la tabla al terminar; mientras se
+ * entrena hay que usar getValues(), maxValue() y update().
+ */
+public class ConcurrentQTable implements QTable {
+    static final double MAX_LOAD = 0.6;
+
+    // Marcas de la tabla vieja durante el crecimiento: una clave libre que ya no
+    // admite inserciones, y un NaN señalizador, que la aritmética nunca produce
+    static final long MOVED_KEY = Long.MIN_VALUE;
+    static final long MOVED_VALUE = 0x7ff0000000000001L;
+    // Resultados de claim() y locate() además del slot
+    private static final int FULL = Integer.MIN_VALUE;
+    private static final int RETRY = Integer.MIN_VALUE + 1;
+
+    /** Claves (clave+1, 0 es un slot libre) y valores, publicados juntos. */
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicLongArray values;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicLongArray(capacity * ACTIONS);
+        }
+    }
+
+    private final ReentrantLock resize = new ReentrantLock();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Table table;
+
+    public ConcurrentQTable(int expectedStates) {
+        table = new Table(BufferQTable.capacityFor(expectedStates));
+    }
+
+    /** Copia de cualquier QTable, por ejemplo la de un checkpoint. */
+    public static ConcurrentQTable copyOf(QTable source) {
+        ConcurrentQTable result = new ConcurrentQTable(source.size());
+        for (int i = 0; i < source.capacity(); i++) {
+            long key = source.getKey(i);
+            if (key == EMPTY) continue;
+            int slot = ~result.getOrInsert(key);
+            for (int action = 0; action < ACTIONS; action++) result.set(slot, action, source.get(i, action));
+        }
+        return result;
+    }
+
+    /**
+     * Copia en el heap para guardarla mientras otros hilos siguen entrenando.
+     * No toma el lock: si la tabla empieza a crecer a mitad de la copia, se
+     * repite sobre la nueva.
+     */
+    public PrimitiveQTable snapshot() {
+        while (true) {
+            PrimitiveQTable result = copyOf(table);
+            if (result != null) return result;
+            awaitGrowth();
+        }
+    }
+
+    // null si ya se ha marcado algún slot como movido
+    private PrimitiveQTable copyOf(Table current) {
+        PrimitiveQTable result = new PrimitiveQTable(size.get());
+        for (int i = 0; i < current.keys.length(); i++) {
+            long stored = current.keys.get(i);
+            if (stored == 0) continue;
+            if (stored == MOVED_KEY) return null;
+            int slot = result.getOrInsert(stored - 1);
+            if (slot < 0) slot = ~slot;
+            for (int a = 0; a < ACTIONS; a++) {
+                long bits = current.values.get(i * ACTIONS + a);
+                if (bits == MOVED_VALUE) return null;
+                result.set(slot, a, Double.longBitsToDouble(bits));
+            }
+        }
+        return result;
+    }
+
+    // --- Operaciones seguras entre hilos ---
+
+    /**
+     * Copia los Q-values del estado en 'out'.
+     * @return falso (sin tocar 'out') si el estado no está
+     */
+    public boolean getValues(long state, double[] out) {
+        while (true) {
+            Table current = table;
+            int slot = locate(current.keys, state);
+            if (slot == -1) return false;
+            if (slot != RETRY && readValues(current.values, slot, out)) return true;
+            awaitGrowth();
+        }
+    }
+
+    /** Mayor Q del estado, 0 si no está (como en QLearningController.updateQTable). */
+    public double maxValue(long state) {
+        while (true) {
+            Table current = table;
+            int slot = locate(current.keys, state);
+            if (slot == -1) return 0.0;
+            if (slot != RETRY) {
+                double result = Double.NEGATIVE_INFINITY;
+                long bits = 0;
+                for (int i = 0; i < ACTIONS && (bits = current.values.get(slot * ACTIONS + i)) != MOVED_VALUE; i++) {
+                    result = Math.max(result, Double.longBitsToDouble(bits));
+                }
+                if (bits != MOVED_VALUE) return result;
+            }
+            awaitGrowth();
+        }
+    }
+
+    /**
+     * Añade el estado con Q = 0 si no estaba.
+     * @return cierto si lo ha añadido este hilo
+     */
+    public boolean insertIfAbsent(long state) {
+        return getOrInsert(state) < 0;
+    }
+
+    /**
+     * Q(s,a) <- Q(s,a) + alpha * (target - Q(s,a)), añadiendo el estado si hace falta.
+     * @return target - Q(s,a) con el valor que había justo antes de actualizar
+     */
+    public double update(long state, int action, double alpha, double target) {
+        while (true) {
+            Table current = table;
+            int slot = claim(current, state);
+            if (slot == FULL) {
+                grow(current);
+                continue;
+            }
+            if (slot != RETRY) {
+                if (slot < 0) slot = ~slot;
+                int index = slot * ACTIONS + action;
+                long bits;
+                while ((bits = current.values.get(index)) != MOVED_VALUE) {
+                    double error = target - Double.longBitsToDouble(bits);
+                    if (current.values.compareAndSet(index, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + alpha * error))) {
+                        return error;
+                    }
+                }
+            }
+            awaitGrowth();
+        }
+    }
+
+    // Slot del estado, -1 si no está o RETRY si la tabla se está copiando
+    private static int locate(AtomicLongArray keys, long state) {
+        int mask = keys.length() - 1;
+        int slot = PrimitiveQTable.hash(state) & mask;
+        long stored;
+        while ((stored = keys.get(slot)) != 0) {
+            if (stored == state + 1) return slot;
+            if (stored == MOVED_KEY) return RETRY;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Falso si algún valor ya se ha movido a la tabla nueva
+    private static boolean readValues(AtomicLongArray values, int slot, double[] out) {
+        for (int i = 0; i < ACTIONS; i++) {
+            long bits = values.get(slot * ACTIONS + i);
+            if (bits == MOVED_VALUE) return false;
+            out[i] = Double.longBitsToDouble(bits);
+        }
+        return true;
+    }
+
+    // Como getOrInsert sobre 'current'; FULL si hay que crecer antes, RETRY si ya se está copiando
+    private int claim(Table current, long state) {
+        AtomicLongArray keys = current.keys;
+        int mask = keys.length() - 1;
+        int slot = PrimitiveQTable.hash(state) & mask;
+        while (true) {
+            long stored = keys.get(slot);
+            if (stored == state + 1) return slot;
+            if (stored == MOVED_KEY) return RETRY;
+            if (stored == 0) {
+                if (size.get() + 1 > keys.length() * MAX_LOAD) return FULL;
+                if (keys.compareAndSet(slot, 0, state + 1)) {
+                    size.incrementAndGet();
+                    return ~slot;
+                }
+                // otro hilo ha ocupado (o marcado) el slot: se vuelve a mirar el mismo
+                continue;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Espera a que termine el crecimiento en curso, que ya ha publicado la tabla nueva al soltar el lock
+    private void awaitGrowth() {
+        resize.lock();
+        resize.unlock();
+    }
+
+    private void grow(Table old) {
+        resize.lock();
+        try {
+            if (table != old) return; // ya ha crecido otro hilo
+            AtomicLongArray oldKeys = old.keys;
+            AtomicLongArray oldValues = old.values;
+            Table grown = new Table(oldKeys.length() * 2);
+            int mask = grown.keys.length() - 1;
+            for (int i = 0; i < oldKeys.length(); i++) {
+                long stored;
+                // un slot libre se cierra; uno ocupado ya no cambia de clave
+                while ((stored = oldKeys.get(i)) == 0 && !oldKeys.compareAndSet(i, 0, MOVED_KEY)) { }
+                if (stored == 0) continue;
+                int slot = PrimitiveQTable.hash(stored - 1) & mask;
+                while (grown.keys.get(slot) != 0) slot = (slot + 1) & mask;
+                grown.keys.set(slot, stored);
+                for (int a = 0; a < ACTIONS; a++) {
+                    long bits;
+                    do {
+                        bits = oldValues.get(i * ACTIONS + a);
+                    } while (!oldValues.compareAndSet(i * ACTIONS + a, bits, MOVED_VALUE));
+                    grown.values.set(slot * ACTIONS + a, bits);
+                }
+            }
+            table = grown;
+        } finally {
+            resize.unlock();
+        }
+    }
+
+    // --- Contrato de QTable, para un solo hilo ---
+
+    @Override
+    public int find(long state) { return locate(table.keys, state); }
+
+    @Override
+    public int getOrInsert(long state) {
+        while (true) {
+            Table current = table;
+            int slot = claim(current, state);
+            if (slot == FULL) {
+                grow(current);
+            } else if (slot == RETRY) {
+                awaitGrowth();
+            } else {
+                return slot;
+            }
+        }
+    }
+
+    @Override
+    public double get(int slot, int action) { return Double.longBitsToDouble(table.values.get(slot * ACTIONS + action)); }
+
+    @Override
+    public void set(int slot, int action, double value) { table.values.set(slot * ACTIONS + action, Double.doubleToRawLongBits(value)); }
+
+    @Override
+    public double max(int slot) {
+        double result = get(slot, 0);
+        for (int i = 1; i < ACTIONS; i++) result = Math.max(result, get(slot, i));
+        return result;
+    }
+
+    @Override
+    public int size() { return size.get(); }
+
+    @Override
+    public int capacity() { return table.keys.length(); }
+
+    @Override
+    public long getKey(int slot) { return table.keys.get(slot) - 1; }
+
+    @Override
+    public long getMemoryBytes() {
+        Table current = table;
+        return 8L * current.keys.length() + 8L * current.values.length();
+    }
+}
@@ -0,0 +1,111 @@
+package controllers;
+
+/**
+ * Trazas de elegibilidad para Q(λ) de Watkins y SARSA(λ) sobre la tabla de
+ * claves empaquetadas. Con la regla de un paso una recompensa sólo llega un
+ * estado más atrás por episodio; con trazas, el error TD de cada paso
+ * actualiza también los pares (s,a) visitados hace poco, con peso (γλ)^k.
+ *
+ * Las trazas son dispersas: sólo se guardan los pares recientes, en arrays
+ * paralelos, y se descartan al bajar de 'cutoff' o al pasar de 'maxTraces',
+ * así que cada paso cuesta como mucho maxTraces actualizaciones. Las trazas
+ * son de reemplazo (volver a un par lo pone a 1). En modo WATKINS_Q se
+ * borran tras una acción exploratoria, porque lo que sigue ya no es la
+ * política voraz. Con λ = 0 es QLearningController.updateQTable, salvo que
+ * al terminar el episodio no se suma el valor de s'.
+ *
+ * Usa la tabla por slots, así que no sirve con una ConcurrentQTable
+ * compartida; cada entrenamiento tiene las suyas.
+ */
+public class EligibilityTraces {
+
+    public enum Mode { WATKINS_Q, SARSA }
+
+    private final Mode mode;
+    private final double lambda;
+    private final double cutoff;
+    private final long[] states;
+    private final byte[] actions;
+    private final double[] traces;
+    private int count;
+
+    public EligibilityTraces(Mode mode, double lambda, int maxTraces, double cutoff) {
+        this.mode = mode;
+        this.lambda = lambda;
+        this.cutoff = cutoff;
+        this.states = new long[maxTraces];
+        this.actions = new byte[maxTraces];
+        this.traces = new double[maxTraces];
+    }
+
+    public Mode getMode() { return mode; }
+    public double getLambda() { return lambda; }
+    /** Pares con traza activa. */
+    public int size() { return count; }
+
+    /** Borra las trazas; hay que llamarlo al empezar cada episodio. */
+    public void reset() { count = 0; }
+
+    /**
+     * Aplica el paso (s, a, r, s') a la tabla del controlador. 'nextAction' es
+     * la acción ya elegida en s' (la usa SARSA, y Q(λ) para saber si fue
+     * voraz); se ignora si 'done'.
+     * @return el error TD del paso
+     */
+    public double update(QLearningController agent, long state, int action, double reward, long nextState, int nextAction, boolean done) {
+        QTable table = agent.packedQTable;
+        double alpha = agent.getAlpha();
+        double gamma = agent.getGamma();
+
+        // nextState se busca antes de insertar state, que puede reorganizar la tabla
+        double nextQ = 0.0;
+        boolean greedy = true;
+        int next = done ? -1 : table.find(nextState);
+        if (next >= 0) {
+            double max = table.max(next);
+            greedy = table.get(next, nextAction) == max;
+            nextQ = (mode == Mode.SARSA) ? table.get(next, nextAction) : max;
+        }
+        int slot = table.getOrInsert(state);
+        if (slot < 0) slot = ~slot;
+        double delta = reward + gamma * nextQ - table.get(slot, action);
+
+        mark(state, action);
+        double decay = gamma * lambda;
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int s = table.find(states[i]);
+            table.set(s, actions[i], table.get(s, actions[i]) + alpha * delta * traces[i]);
+            double trace = traces[i] * decay;
+            if (trace < cutoff) continue;
+            states[kept] = states[i];
+            actions[kept] = actions[i];
+            traces[kept] = trace;
+            kept++;
+        }
+        count = kept;
+
+        if (done || (mode == Mode.WATKINS_Q && !greedy)) count = 0;
+        return delta;
+    }
+
+    // Traza de reemplazo: el par vuelve a 1; si no cabe, sale el de traza más baja
+    private void mark(long state, int action) {
+        for (int i = 0; i < count; i++) {
+            if (states[i] == state && actions[i] == action) {
+                traces[i] = 1.0;
+                return;
+            }
+        }
+        int i = count;
+        if (count == states.length) {
+            i = 0;
+            for (int j = 1; j < count; j++) if (traces[j] < traces[i]) i = j;
+        } else {
+            count++;
+        }
+        states[i] = state;
+        actions[i] = (byte) action;
+        traces[i] = 1.0;
+    }
+}
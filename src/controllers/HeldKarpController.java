@@ -0,0 +1,325 @@
+package controllers;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import dungeon.play.GameCharacter;
+import dungeon.play.Monster;
+import dungeon.play.PlayMap;
+import dungeon.play.Powerup;
+
+/**
+ * Plans a TRYHARD route once per episode with a Held-Karp style dynamic
+ * program over subsets of entities, taking the known damage of each
+ * monster and the healing of each potion into account. A leg is walked
+ * the way RouteController walks it, around every entity not yet visited,
+ * so its length is worked out for each visited set. For every set of
+ * visited monsters, treasures and potions and every last-visited entity it
+ * keeps each walk that no other walk beats on both length and HP left, so
+ * a longer walk that keeps the hero healthier is not lost. Routes on which
+ * the hero would die are dropped. The route kept is the one that, ending
+ * on an exit, scores best under the TRYHARD rewards of QLearningController.
+ * Above MAX_ENTITIES the farthest potions, then treasures, are left out of
+ * the plan, so the route is then only the best over the entities kept.
+ */
+public class HeldKarpController extends RouteController {
+	// the DP has n*2^n states; the shipped maps have 19 entities, above this many the farthest ones are left out
+	public final static int MAX_ENTITIES = 19;
+
+	// TRYHARD rewards, see QLearningController.getReward()
+	final static double COLLECT_REWARD = 1.0;
+	final static double EXIT_REWARD = 2.0;
+	final static double STEP_COST = 0.01;
+
+	final static int MONSTER = 0;
+	final static int TREASURE = 1;
+	final static int POTION = 2;
+	final static int OVERHEAL_POTION = 3;
+
+	// tiles of treasures and potions left out of the current plan, which walks may cross
+	int[] ignored = new int[0];
+
+	public HeldKarpController(PlayMap map, GameCharacter controllingChar){
+		super(map,controllingChar,"HeldKarpController");
+	}
+	public HeldKarpController(PlayMap map, GameCharacter controllingChar, String label){
+		super(map,controllingChar,label);
+	}
+
+	@Override
+	protected int[] planRoute(){
+		ignored = new int[0];
+		Vector<GameCharacter> entities = new Vector<GameCharacter>();
+		for(int i=0;i<map.getMonsterChars().size();i++){
+			if(map.getMonsterChars().get(i).isAlive()){ entities.add(map.getMonsterChars().get(i)); }
+		}
+		for(int i=0;i<map.getRewardChars().size();i++){
+			if(map.getRewardChars().get(i).isAlive()){ entities.add(map.getRewardChars().get(i)); }
+		}
+		for(int i=0;i<map.getPotionChars().size();i++){
+			if(map.getPotionChars().get(i).isAlive()){ entities.add(map.getPotionChars().get(i)); }
+		}
+		if(entities.size()>MAX_ENTITIES){ ignored = dropFarthest(entities); }
+		int n = entities.size();
+		int[] tiles = new int[n];
+		int[] types = new int[n];
+		int[] effects = new int[n];
+		int required = 0;
+		for(int i=0;i<n;i++){
+			GameCharacter entity = entities.get(i);
+			tiles[i] = tileOf(entity);
+			if(entity instanceof Monster){
+				types[i] = MONSTER;
+				effects[i] = ((Monster)entity).getDamage();
+				required |= 1<<i;
+			} else if(entity instanceof Powerup){
+				types[i] = ((Powerup)entity).isOverheal() ? OVERHEAL_POTION : POTION;
+				effects[i] = ((Powerup)entity).getHealing();
+			} else {
+				types[i] = TREASURE;
+				required |= 1<<i;
+			}
+		}
+
+		// legs are walked with every entity not yet visited still blocking, so their length depends on the visited set
+		Legs legs = new Legs(tiles);
+		int heroTile = tileOf(map.getHero());
+		legs.walk(heroTile, 0);
+
+		// states are mask*n+last; the labels only live for this plan
+		Labels labels = new Labels(n<<n);
+		int maxHP = map.getHero().getStartingHitpoints();
+		for(int j=0;j<n;j++){
+			if(legs.distance[j]==UNREACHABLE){ continue; }
+			int hp = applyEffect(map.getHero().getHitpoints(), maxHP, types[j], effects[j]);
+			if(hp<=0){ continue; }
+			labels.offer((1<<j)*n+j, legs.distance[j], hp, -1);
+		}
+
+		// walking straight out is the fallback
+		int bestLabel = -1;
+		int bestExit = legs.nearestExit;
+		double bestScore = (legs.toExit==UNREACHABLE) ? Double.NEGATIVE_INFINITY : EXIT_REWARD-STEP_COST*legs.toExit;
+		// adding an entity always makes the mask larger, so one pass in mask order suffices
+		for(int mask=1;mask<(1<<n);mask++){
+			for(int last=0;last<n;last++){
+				if(labels.head[mask*n+last]<0){ continue; }
+				legs.walk(tiles[last], mask);
+				for(int label=labels.head[mask*n+last];label>=0;label=labels.next[label]){
+					if(legs.toExit!=UNREACHABLE){
+						double score = COLLECT_REWARD*Integer.bitCount(mask & required)+EXIT_REWARD-STEP_COST*(labels.steps[label]+legs.toExit);
+						if(score>bestScore){
+							bestScore = score;
+							bestLabel = label;
+							bestExit = legs.nearestExit;
+						}
+					}
+					for(int j=0;j<n;j++){
+						if((mask & (1<<j))!=0 || legs.distance[j]==UNREACHABLE){ continue; }
+						int hp = applyEffect(labels.hitpoints[label], maxHP, types[j], effects[j]);
+						if(hp<=0){ continue; }
+						labels.offer((mask | (1<<j))*n+j, labels.steps[label]+legs.distance[j], hp, label);
+					}
+				}
+			}
+		}
+
+		if(bestLabel<0){
+			return (bestExit<0) ? new int[0] : new int[]{ bestExit };
+		}
+		int length = Integer.bitCount(labels.state[bestLabel]/n);
+		int[] result = new int[length+1];
+		result[length] = bestExit;
+		int label = bestLabel;
+		for(int i=length-1;i>=0;i--){
+			result[i] = tiles[labels.state[label]%n];
+			label = labels.previous[label];
+		}
+		return result;
+	}
+
+	/**
+	 * Breadth-first walks over the map's tiles, as RouteController walks
+	 * them, where the planned entities block unless they are in the visited 
+	 * set. Other blocking tiles (exits, left-out monsters) always block.
+	 */
+	class Legs {
+		final int[] tiles;
+		final boolean[] blocking;
+		final int[] exits;
+		final int[] neighbors;
+		final int[] walk;
+		final int[] queue;
+		// results of the last walk
+		final int[] distance;
+		int toExit;
+		int nearestExit;
+
+		Legs(int[] tiles){
+			this.tiles = tiles;
+			blocking = getBlockingTiles();
+			for(int i=0;i<tiles.length;i++){ blocking[tiles[i]] = false; }
+			exits = getExitTiles();
+			neighbors = new int[blocking.length*4];
+			for(int tile=0;tile<blocking.length;tile++){
+				for(int dir=0;dir<4;dir++){ neighbors[tile*4+dir] = neighbor(tile, dir); }
+			}
+			walk = new int[blocking.length];
+			queue = new int[blocking.length];
+			distance = new int[tiles.length];
+		}
+
+		/** Distances from 'source' to every planned entity and to the nearest exit. */
+		void walk(int source, int visited){
+			for(int i=0;i<tiles.length;i++){
+				if((visited & (1<<i))==0){ blocking[tiles[i]] = true; }
+			}
+			Arrays.fill(walk, UNREACHABLE);
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = source;
+			walk[source] = 0;
+			while(head<tail){
+				int u = queue[head++];
+				if(u!=source && blocking[u]){ continue; }
+				for(int dir=0;dir<4;dir++){
+					int v = neighbors[u*4+dir];
+					if(v>=0 && walk[v]==UNREACHABLE){
+						walk[v] = walk[u]+1;
+						queue[tail++] = v;
+					}
+				}
+			}
+			for(int i=0;i<tiles.length;i++){
+				distance[i] = walk[tiles[i]];
+				blocking[tiles[i]] = false;
+			}
+			toExit = UNREACHABLE;
+			nearestExit = -1;
+			for(int e=0;e<exits.length;e++){
+				if(walk[exits[e]]<toExit){
+					toExit = walk[exits[e]];
+					nearestExit = exits[e];
+				}
+			}
+		}
+	}
+
+	/**
+	 * The (steps, HP) labels of every DP state, each state's kept as a 
+	 * linked list in shared arrays. A label is only dropped when another 
+	 * label of the same state has no more steps and no less HP. Dropped 
+	 * labels are reused; none is ever referenced yet, since a state's 
+	 * labels are only extended once every smaller mask is done.
+	 */
+	static class Labels {
+		int[] head;
+		int[] steps;
+		short[] hitpoints;
+		int[] state;
+		int[] previous;	// label this one extends, -1 for the first entity
+		int[] next;		// next label of the same state, or of the free list
+		int size;
+		int free = -1;
+
+		Labels(int states){
+			head = new int[states];
+			Arrays.fill(head, -1);
+			// only a small share of the states is ever reached
+			int capacity = 1024;
+			steps = new int[capacity];
+			hitpoints = new short[capacity];
+			state = new int[capacity];
+			previous = new int[capacity];
+			next = new int[capacity];
+		}
+
+		/** Adds a label to 'target' unless one of its labels dominates it, dropping those it dominates. */
+		void offer(int target, int cost, int hp, int from){
+			int before = -1;
+			int label = head[target];
+			while(label>=0){
+				int after = next[label];
+				if(steps[label]<=cost && hitpoints[label]>=hp){ return; }
+				if(cost<=steps[label] && hp>=hitpoints[label]){
+					if(before<0){ head[target] = after; } else { next[before] = after; }
+					next[label] = free;
+					free = label;
+				} else {
+					before = label;
+				}
+				label = after;
+			}
+			if(free>=0){
+				label = free;
+				free = next[label];
+			} else {
+				if(size==steps.length){ grow(); }
+				label = size++;
+			}
+			steps[label] = cost;
+			hitpoints[label] = (short)hp;
+			state[label] = target;
+			previous[label] = from;
+			next[label] = head[target];
+			head[target] = label;
+		}
+
+		void grow(){
+			int capacity = steps.length*2;
+			steps = Arrays.copyOf(steps, capacity);
+			hitpoints = Arrays.copyOf(hitpoints, capacity);
+			state = Arrays.copyOf(state, capacity);
+			previous = Arrays.copyOf(previous, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+	}
+
+	/** HP after stepping on an entity, following Monster and Powerup.eventCollision(). */
+	static int applyEffect(int hp, int maxHP, int type, int effect){
+		if(type==MONSTER){ return hp-effect; }
+		if(type==POTION){ return hp+Math.min(effect, Math.max(0, maxHP-hp)); }
+		if(type==OVERHEAL_POTION){ return hp+effect; }
+		return hp;
+	}
+
+	/** 
+	 * Leaves out the potions farthest from the hero until MAX_ENTITIES are 
+	 * left, then treasures, which are worth a reward, and monsters last. 
+	 * Walking over a left-out treasure or potion never costs HP, so those 
+	 * stop blocking; left-out monsters still block. 
+	 * @return the tiles of the left-out treasures and potions
+	 */
+	int[] dropFarthest(Vector<GameCharacter> entities){
+		int[] walk = distancesFrom(tileOf(map.getHero()), getBlockingTiles());
+		int[] result = new int[entities.size()];
+		int count = 0;
+		for(int type=POTION;entities.size()>MAX_ENTITIES && type>=MONSTER;type--){
+			while(entities.size()>MAX_ENTITIES){
+				int farthest = -1;
+				for(int i=0;i<entities.size();i++){
+					if(typeOf(entities.get(i))!=type){ continue; }
+					if(farthest<0 || walk[tileOf(entities.get(i))]>walk[tileOf(entities.get(farthest))]){ farthest = i; }
+				}
+				if(farthest<0){ break; }
+				if(type!=MONSTER){ result[count++] = tileOf(entities.get(farthest)); }
+				entities.remove(farthest);
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/** MONSTER, TREASURE or POTION; overhealing potions count as potions. */
+	static int typeOf(GameCharacter entity){
+		if(entity instanceof Monster){ return MONSTER; }
+		if(entity instanceof Powerup){ return POTION; }
+		return TREASURE;
+	}
+
+	@Override
+	protected boolean[] getBlockingTiles(){
+		boolean[] result = super.getBlockingTiles();
+		for(int i=0;i<ignored.length;i++){ result[ignored[i]] = false; }
+		return result;
+	}
+}
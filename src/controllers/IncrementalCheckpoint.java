@@ -0,0 +1,304 @@
+package controllers;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoints incrementales que se escriben en segundo plano, para que el
+ * entrenamiento no espere al disco.
+ *
+ * Envuelve la tabla empaquetada del controlador para anotar qué estados
+ * cambian. checkpoint() sólo copia esas filas (el resto no se toca) y un
+ * hilo aparte las escribe como delta en "<fichero>.delta.<episodio>". La
+ * primera vez, y cada 'maxDeltas' deltas, se escribe la tabla entera como
+ * base en "<fichero>" con PolicyFile y se borran los deltas anteriores.
+ * Cada fichero se escribe en uno temporal y se renombra, así que un corte
+ * deja el checkpoint anterior intacto.
+ *
+ * restore() carga la base y aplica en orden los deltas posteriores a ella;
+ * los deltas guardan valores, no diferencias, así que repetir uno no cambia
+ * nada. Cada delta anota el episodio de lo que le precede en la cadena (la
+ * base o el delta anterior), y restore() se para en el primer hueco: si un
+ * delta no llegó a escribirse, los que se encolaron detrás no se aplican.
+ */
+public class IncrementalCheckpoint implements AutoCloseable {
+    static final int DELTA_MAGIC = 0x4D445144;
+    static final int DELTA_VERSION = 2;
+    static final String DELTA_SUFFIX = ".delta.";
+
+    private final QLearningController agent;
+    private final String filename;
+    private final int maxDeltas;
+    private final DirtyQTable table;
+    private final ExecutorService writer;
+    private volatile boolean needsBase = true;
+    private int deltasSinceBase;
+    // episodio de la base o del delta encolado en último lugar
+    private int chainEpisode;
+
+    public IncrementalCheckpoint(QLearningController agent, String filename, int maxDeltas) {
+        this.agent = agent;
+        this.filename = filename;
+        this.maxDeltas = maxDeltas;
+        // una política cargada con loadPolicy sigue mapeada sobre su fichero y no admite inserciones
+        QTable current = agent.packedQTable;
+        this.table = new DirtyQTable((current instanceof PrimitiveQTable) ? current : PrimitiveQTable.copyOf(current));
+        agent.setPackedQTable(table);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Copia lo que ha cambiado desde el checkpoint anterior y lo manda a
+     * escribir; vuelve sin esperar al disco.
+     */
+    public void checkpoint(int episode) {
+        if (needsBase || deltasSinceBase >= maxDeltas) {
+            final PolicyFile base = agent.toPolicyFile(episode, PrimitiveQTable.copyOf(table.inner));
+            table.clearDirty();
+            needsBase = false;
+            deltasSinceBase = 0;
+            chainEpisode = episode;
+            writer.submit(() -> writeBase(base));
+            return;
+        }
+        final long[] keys = table.dirtyKeys();
+        final double[] values = new double[keys.length * QTable.ACTIONS];
+        for (int i = 0; i < keys.length; i++) {
+            int slot = table.inner.find(keys[i]);
+            for (int a = 0; a < QTable.ACTIONS; a++) values[i * QTable.ACTIONS + a] = table.inner.get(slot, a);
+        }
+        table.clearDirty();
+        deltasSinceBase++;
+        final int previous = chainEpisode;
+        chainEpisode = episode;
+        writer.submit(() -> writeDelta(episode, previous, keys, values));
+    }
+
+    /** Espera a que se escriba lo pendiente. */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBase(PolicyFile base) {
+        try {
+            base.write(Paths.get(filename));
+            // la nueva base ya contiene todo lo de los deltas anteriores
+            for (Path delta : listDeltas(filename)) Files.deleteIfExists(delta);
+        } catch (IOException e) {
+            needsBase = true;
+            e.printStackTrace();
+        }
+    }
+
+    private void writeDelta(int episode, int previous, long[] keys, double[] values) {
+        Path file = Paths.get(filename + DELTA_SUFFIX + episode);
+        try {
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                    out.writeInt(DELTA_MAGIC);
+                    out.writeInt(DELTA_VERSION);
+                    out.writeInt(episode);
+                    out.writeInt(previous);
+                    out.writeInt(keys.length);
+                    for (int i = 0; i < keys.length; i++) {
+                        out.writeLong(keys[i]);
+                        for (int a = 0; a < QTable.ACTIONS; a++) out.writeDouble(values[i * QTable.ACTIONS + a]);
+                    }
+                    out.flush();
+                    stream.getFD().sync();
+                }
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // sin este delta la cadena queda incompleta: el siguiente checkpoint será una base,
+            // y restore() no pasará de aquí aunque ya haya deltas posteriores en cola
+            needsBase = true;
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Carga en el controlador la base de 'filename' y los deltas posteriores.
+     * @return el episodio del último checkpoint aplicado, o 0 si no hay base
+     */
+    public static int restore(QLearningController agent, String filename) {
+        if (!new File(filename).exists()) return 0;
+        int episode = agent.loadCheckpoint(filename);
+        if (episode == 0 || !agent.isPackedStates()) return episode;
+        int applied = 0;
+        for (Path delta : listDeltas(filename)) {
+            int deltaEpisode = episodeOf(delta);
+            if (deltaEpisode <= episode) continue;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(delta.toFile())))) {
+                if (in.readInt() != DELTA_MAGIC || in.readInt() != DELTA_VERSION || in.readInt() != deltaEpisode) {
+                    throw new IOException("Not a checkpoint delta: " + delta);
+                }
+                if (in.readInt() != episode) {
+                    // falta el delta (o la base) en que se apoya este
+                    System.out.println("Checkpoint delta " + delta + " does not follow episode " + episode + ", resuming from there");
+                    break;
+                }
+                int count = in.readInt();
+                QTable table = agent.packedQTable;
+                for (int i = 0; i < count; i++) {
+                    int slot = table.getOrInsert(in.readLong());
+                    if (slot < 0) slot = ~slot;
+                    for (int a = 0; a < QTable.ACTIONS; a++) table.set(slot, a, in.readDouble());
+                }
+                episode = deltaEpisode;
+                applied++;
+            } catch (IOException e) {
+                // un delta ilegible corta la cadena: lo que venga después no se puede aplicar
+                System.out.println("Checkpoint delta " + delta + " could not be read, resuming from episode " + episode);
+                break;
+            }
+        }
+        if (applied > 0) System.out.println(">>> Applied " + applied + " checkpoint deltas, resuming from Episode " + episode);
+        return episode;
+    }
+
+    /** Borra la base y los deltas de 'filename'. */
+    public static void delete(String filename) {
+        try {
+            for (Path delta : listDeltas(filename)) Files.deleteIfExists(delta);
+            Files.deleteIfExists(Paths.get(filename));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Deltas de 'filename' ordenados por episodio
+    static List<Path> listDeltas(String filename) {
+        Path base = Paths.get(filename).toAbsolutePath();
+        String prefix = base.getFileName() + DELTA_SUFFIX;
+        List<Path> result = new ArrayList<>();
+        File[] files = base.getParent().toFile().listFiles();
+        if (files == null) return result;
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && episodeOf(file.toPath()) >= 0) result.add(file.toPath());
+        }
+        result.sort((a, b) -> Integer.compare(episodeOf(a), episodeOf(b)));
+        return result;
+    }
+
+    private static int episodeOf(Path delta) {
+        String name = delta.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * QTable que delega en otra y anota las claves de los estados que se
+     * insertan o cambian, en un conjunto abierto de longs (clave+1, 0 libre).
+     */
+    static class DirtyQTable implements QTable {
+        final QTable inner;
+        private long[] dirty = new long[1024];
+        private int dirtyCount;
+
+        DirtyQTable(QTable inner) {
+            this.inner = inner;
+        }
+
+        private void mark(long key) {
+            if (dirtyCount + 1 > dirty.length * PrimitiveQTable.MAX_LOAD) {
+                long[] old = dirty;
+                dirty = new long[old.length * 2];
+                dirtyCount = 0;
+                for (long stored : old) if (stored != 0) mark(stored - 1);
+            }
+            int mask = dirty.length - 1;
+            int i = PrimitiveQTable.hash(key) & mask;
+            long stored;
+            while ((stored = dirty[i]) != 0) {
+                if (stored == key + 1) return;
+                i = (i + 1) & mask;
+            }
+            dirty[i] = key + 1;
+            dirtyCount++;
+        }
+
+        long[] dirtyKeys() {
+            long[] result = new long[dirtyCount];
+            int n = 0;
+            for (long stored : dirty) if (stored != 0) result[n++] = stored - 1;
+            return result;
+        }
+
+        void clearDirty() {
+            dirty = new long[1024];
+            dirtyCount = 0;
+        }
+
+        @Override
+        public int find(long state) { return inner.find(state); }
+
+        @Override
+        public int getOrInsert(long state) {
+            int slot = inner.getOrInsert(state);
+            if (slot < 0) mark(state);
+            return slot;
+        }
+
+        @Override
+        public double get(int slot, int action) { return inner.get(slot, action); }
+
+        @Override
+        public void set(int slot, int action, double value) {
+            inner.set(slot, action, value);
+            mark(inner.getKey(slot));
+        }
+
+        @Override
+        public double max(int slot) { return inner.max(slot); }
+
+        @Override
+        public int size() { return inner.size(); }
+
+        @Override
+        public int capacity() { return inner.capacity(); }
+
+        @Override
+        public long getKey(int slot) { return inner.getKey(slot); }
+
+        @Override
+        public long getMemoryBytes() { return inner.getMemoryBytes() + 8L * dirty.length; }
+    }
+}
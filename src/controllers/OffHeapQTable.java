@@ -0,0 +1,224 @@
+package controllers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * QTable fuera del heap, sobre la Foreign Memory API. Los estados viven en un
+ * MemorySegment como registros de 40 bytes (clave y los cuatro Q-values
+ * juntos) con direccionamiento abierto. Un registro puede cruzar dos líneas
+ * de caché; no se rellena a 64 bytes porque la tabla ocuparía un 60% más.
+ * El GC no ve la tabla y getMemoryBytes() es exactamente lo que ocupa.
+ * Con map() el segmento es un fichero mapeado: guardar es force() y cargar
+ * es volver a mapearlo, sin copiar nada. Hay que cerrarla con close().
+ *
+ * Fichero: cabecera de 64 bytes (MAGIC, VERSION, capacidad, estados) y
+ * después los registros. Las claves se guardan como clave+1 para que la
+ * memoria recién reservada, que es todo ceros, sea una tabla vacía.
+ */
+public class OffHeapQTable implements QTable, AutoCloseable {
+    static final int MAGIC = 0x51544F48;
+    static final int VERSION = 1;
+    static final long HEADER_BYTES = 64;
+    static final long RECORD_BYTES = 8 + 8L * ACTIONS;
+    static final double MAX_LOAD = 0.6;
+
+    private final Path file;
+    private Arena arena;
+    private MemorySegment segment;
+    private int capacity;
+    private int mask;
+    private int size;
+
+    /** Tabla en memoria nativa, dimensionada para 'expectedStates' estados. */
+    public OffHeapQTable(int expectedStates) {
+        this.file = null;
+        allocate(null, capacityFor(expectedStates));
+    }
+
+    private OffHeapQTable(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Mapea la tabla guardada en 'file', o crea allí una vacía si el fichero
+     * no existe. Los cambios llegan al fichero al hacer force() o close().
+     */
+    public static OffHeapQTable map(Path file, int expectedStates) throws IOException {
+        OffHeapQTable table = new OffHeapQTable(file);
+        if (!Files.exists(file)) {
+            table.allocate(file, capacityFor(expectedStates));
+            return table;
+        }
+        long bytes = Files.size(file);
+        table.arena = Arena.ofShared();
+        table.segment = mapFile(file, bytes, table.arena);
+        MemorySegment header = table.segment;
+        if (bytes < HEADER_BYTES || header.get(ValueLayout.JAVA_INT, 0) != MAGIC || header.get(ValueLayout.JAVA_INT, 4) != VERSION
+                || bytesFor((int) header.get(ValueLayout.JAVA_LONG, 8)) != bytes) {
+            table.close();
+            throw new IOException("Not a Q-table file: " + file);
+        }
+        table.capacity = (int) header.get(ValueLayout.JAVA_LONG, 8);
+        table.mask = table.capacity - 1;
+        table.size = (int) header.get(ValueLayout.JAVA_LONG, 16);
+        return table;
+    }
+
+    static int capacityFor(int expectedStates) {
+        return Integer.highestOneBit((int) Math.max(16, expectedStates / MAX_LOAD) * 2 - 1);
+    }
+
+    static long bytesFor(int capacity) {
+        return HEADER_BYTES + RECORD_BYTES * capacity;
+    }
+
+    private static MemorySegment mapFile(Path path, long bytes, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // un fichero nuevo se extiende con un byte al final y queda lleno de ceros
+            if (channel.size() < bytes) channel.write(ByteBuffer.wrap(new byte[1]), bytes - 1);
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+        }
+    }
+
+    // Reserva un segmento vacío, mapeado sobre 'path' si no es null; un
+    // fichero que ya estuviera ahí (p. ej. un .grow de un corte) se descarta
+    private void allocate(Path path, int newCapacity) {
+        Arena newArena = Arena.ofShared();
+        try {
+            if (path != null) Files.deleteIfExists(path);
+            segment = (path == null) ? newArena.allocate(bytesFor(newCapacity), 8) : mapFile(path, bytesFor(newCapacity), newArena);
+        } catch (IOException e) {
+            newArena.close();
+            throw new UncheckedIOException(e);
+        }
+        arena = newArena;
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        size = 0;
+        segment.set(ValueLayout.JAVA_INT, 0, MAGIC);
+        segment.set(ValueLayout.JAVA_INT, 4, VERSION);
+        segment.set(ValueLayout.JAVA_LONG, 8, newCapacity);
+        segment.set(ValueLayout.JAVA_LONG, 16, 0L);
+    }
+
+    private static long offset(int slot) {
+        return HEADER_BYTES + RECORD_BYTES * slot;
+    }
+
+    @Override
+    public int find(long state) {
+        int slot = PrimitiveQTable.hash(state) & mask;
+        long stored;
+        while ((stored = segment.get(ValueLayout.JAVA_LONG, offset(slot))) != 0) {
+            if (stored == state + 1) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getOrInsert(long state) {
+        int slot = PrimitiveQTable.hash(state) & mask;
+        long stored;
+        while ((stored = segment.get(ValueLayout.JAVA_LONG, offset(slot))) != 0) {
+            if (stored == state + 1) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            grow();
+            slot = PrimitiveQTable.hash(state) & mask;
+            while (segment.get(ValueLayout.JAVA_LONG, offset(slot)) != 0) slot = (slot + 1) & mask;
+        }
+        segment.set(ValueLayout.JAVA_LONG, offset(slot), state + 1);
+        segment.set(ValueLayout.JAVA_LONG, 16, ++size);
+        return ~slot;
+    }
+
+    // Rehace la tabla con el doble de slots; si está mapeada, en un fichero
+    // nuevo que después reemplaza al original
+    private void grow() {
+        Arena oldArena = arena;
+        MemorySegment old = segment;
+        int oldCapacity = capacity;
+        Path target = (file == null) ? null : file.resolveSibling(file.getFileName() + ".grow");
+        allocate(target, oldCapacity * 2);
+        for (int i = 0; i < oldCapacity; i++) {
+            long stored = old.get(ValueLayout.JAVA_LONG, offset(i));
+            if (stored == 0) continue;
+            int slot = PrimitiveQTable.hash(stored - 1) & mask;
+            while (segment.get(ValueLayout.JAVA_LONG, offset(slot)) != 0) slot = (slot + 1) & mask;
+            MemorySegment.copy(old, offset(i), segment, offset(slot), RECORD_BYTES);
+            size++;
+        }
+        segment.set(ValueLayout.JAVA_LONG, 16, size);
+        oldArena.close();
+        if (file != null) {
+            try {
+                segment.force();
+                Files.move(target, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public double get(int slot, int action) {
+        return segment.get(ValueLayout.JAVA_DOUBLE, offset(slot) + 8 + 8L * action);
+    }
+
+    @Override
+    public void set(int slot, int action, double value) {
+        segment.set(ValueLayout.JAVA_DOUBLE, offset(slot) + 8 + 8L * action, value);
+    }
+
+    @Override
+    public double max(int slot) {
+        long base = offset(slot) + 8;
+        double result = segment.get(ValueLayout.JAVA_DOUBLE, base);
+        for (int i = 1; i < ACTIONS; i++) {
+            double v = segment.get(ValueLayout.JAVA_DOUBLE, base + 8L * i);
+            if (v > result) result = v;
+        }
+        return result;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public int capacity() { return capacity; }
+
+    @Override
+    public long getKey(int slot) { return segment.get(ValueLayout.JAVA_LONG, offset(slot)) - 1; }
+
+    @Override
+    public long getMemoryBytes() { return segment.byteSize(); }
+
+    /** Fichero sobre el que está mapeada, o null si vive sólo en memoria. */
+    public Path getFile() { return file; }
+
+    /** Escribe en el fichero los cambios pendientes; no hace nada si no está mapeada. */
+    public void force() {
+        if (file != null) segment.force();
+    }
+
+    /** Libera la memoria nativa (y el mapeo); la tabla no puede usarse después. */
+    @Override
+    public void close() {
+        if (arena == null) return;
+        force();
+        arena.close();
+        arena = null;
+    }
+}
@@ -0,0 +1,145 @@
+package controllers;
+
+import java.util.Arrays;
+import java.util.Vector;
+import dungeon.play.GameCharacter;
+import dungeon.play.PlayMap;
+
+/**
+ * Codifica en un long la parte dinámica del estado de una partida: la casilla
+ * del héroe, el nivel de HP de getAbstractHP() y una máscara de vivos para
+ * monstruos, tesoros y pociones. Paredes, entrada y salidas no cambian dentro
+ * de un mapa, así que no entran en la clave.
+ * Bits, desde el 0: [casilla | HP (2 bits) | monstruos | tesoros | pociones].
+ * Las claves válidas nunca son negativas.
+ */
+public class PackedStateEncoder {
+    public static final int HP_BITS = 2;
+    public static final int MAX_KEY_BITS = 63;
+
+    private final PlayMap map;
+    private final int sizeX;
+    private final int tiles;
+    private final int tileBits;
+    private final int monsterCount, rewardCount, potionCount;
+    private final int monsterShift, rewardShift, potionShift;
+
+    // Índice de entidad por casilla, para traducir claves del formato String
+    private final int[] monsterAt, rewardAt, potionAt;
+
+    public PackedStateEncoder(PlayMap map) {
+        this.map = map;
+        this.sizeX = map.getMapSizeX();
+        this.tiles = sizeX * map.getMapSizeY();
+        this.tileBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(tiles - 1));
+        this.monsterCount = map.getMonsterChars().size();
+        this.rewardCount = map.getRewardChars().size();
+        this.potionCount = map.getPotionChars().size();
+        this.monsterShift = tileBits + HP_BITS;
+        this.rewardShift = monsterShift + monsterCount;
+        this.potionShift = rewardShift + rewardCount;
+        this.monsterAt = indexByTile(map.getMonsterChars());
+        this.rewardAt = indexByTile(map.getRewardChars());
+        this.potionAt = indexByTile(map.getPotionChars());
+    }
+
+    /** Bits que ocupa una clave en este mapa. */
+    public int getKeyBits() { return potionShift + potionCount; }
+
+    /** Falso si el mapa tiene demasiadas entidades para caber en un long. */
+    public boolean fits() { return getKeyBits() <= MAX_KEY_BITS; }
+
+    /** Cierto si el codificador sigue sirviendo para este mapa (las entidades se recrean en cada partida). */
+    public boolean matches(PlayMap other) {
+        return other == map && other.getMonsterChars().size() == monsterCount
+                && other.getRewardChars().size() == rewardCount && other.getPotionChars().size() == potionCount;
+    }
+
+    /**
+     * Hash FNV-1a de lo que da sentido a las claves: tamaño, paredes, salidas y
+     * posición (en orden) de monstruos, tesoros y pociones. Una política
+     * guardada sólo sirve en un mapa con el mismo hash.
+     */
+    public long getLayoutHash() {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ sizeX) * 0x100000001b3L;
+        hash = (hash ^ tiles) * 0x100000001b3L;
+        for (int y = 0; y < map.getMapSizeY(); y++) {
+            for (int x = 0; x < sizeX; x++) {
+                hash = (hash ^ (map.isPassable(x, y) ? 0 : 1)) * 0x100000001b3L;
+            }
+        }
+        for (int i = 0; i < map.getExitLength(); i++) {
+            hash = (hash ^ ((int) map.getExit(i).y * sizeX + (int) map.getExit(i).x)) * 0x100000001b3L;
+        }
+        hash = hashTiles(hash, map.getMonsterChars());
+        hash = hashTiles(hash, map.getRewardChars());
+        return hashTiles(hash, map.getPotionChars());
+    }
+
+    private long hashTiles(long hash, Vector<? extends GameCharacter> chars) {
+        hash = (hash ^ chars.size()) * 0x100000001b3L;
+        for (int i = 0; i < chars.size(); i++) {
+            hash = (hash ^ (chars.get(i).getY() * sizeX + chars.get(i).getX())) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public long encode(int abstractHP) {
+        GameCharacter hero = map.getHero();
+        long key = hero.getY() * sizeX + hero.getX();
+        key |= (long) abstractHP << tileBits;
+        key |= aliveMask(map.getMonsterChars()) << monsterShift;
+        key |= aliveMask(map.getRewardChars()) << rewardShift;
+        key |= aliveMask(map.getPotionChars()) << potionShift;
+        return key;
+    }
+
+    private static long aliveMask(Vector<? extends GameCharacter> chars) {
+        long mask = 0;
+        for (int i = 0; i < chars.size(); i++) {
+            if (chars.get(i).isAlive()) mask |= 1L << i;
+        }
+        return mask;
+    }
+
+    private int[] indexByTile(Vector<? extends GameCharacter> chars) {
+        int[] result = new int[tiles];
+        Arrays.fill(result, -1);
+        for (int i = 0; i < chars.size(); i++) {
+            result[chars.get(i).getY() * sizeX + chars.get(i).getX()] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Traduce una clave de getStateRepresentation() (una letra por casilla y
+     * "HP:n" al final) a la clave empaquetada equivalente.
+     * @return la clave, o -1 si la cadena no corresponde a este mapa
+     */
+    public long fromLegacy(String state) {
+        if (state.length() != tiles + 4 || !state.startsWith("HP:", tiles)) return -1;
+        int abstractHP = state.charAt(tiles + 3) - '0';
+        if (abstractHP < 0 || abstractHP > 3) return -1;
+        long key = -1;
+        long monsters = 0, rewards = 0, potions = 0;
+        for (int tile = 0; tile < tiles; tile++) {
+            char c = state.charAt(tile);
+            if (c == '@') {
+                key = tile;
+            } else if (c == 'm') {
+                if (monsterAt[tile] < 0) return -1;
+                monsters |= 1L << monsterAt[tile];
+            } else if (c == 'r') {
+                if (rewardAt[tile] < 0) return -1;
+                rewards |= 1L << rewardAt[tile];
+            } else if (c == 'p') {
+                if (potionAt[tile] < 0) return -1;
+                potions |= 1L << potionAt[tile];
+            }
+        }
+        if (key < 0) return -1;
+        return key | (long) abstractHP << tileBits | monsters << monsterShift
+                | rewards << rewardShift | potions << potionShift;
+    }
+}
@@ -0,0 +1,142 @@
+package controllers;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Formato binario versionado para políticas y checkpoints con claves
+ * empaquetadas, en lugar de serializar el HashMap.
+ *
+ * Cabecera de 128 bytes (big-endian): MAGIC, VERSION, codificación de
+ * estados, bits por clave, hash del mapa, alpha, gamma, epsilon, episodio
+ * (-1 en una política final), capacidad, número de estados y la persona
+ * (longitud y nombre en ASCII). Después, 'capacidad' registros de 40 bytes
+ * colocados por hash como en BufferQTable, los libres a cero.
+ *
+ * read() mapea el fichero y usa los registros tal cual, sin deserializar:
+ * el mapeo es privado, así que lo que se aprenda después no llega al fichero
+ * (si el fichero es de sólo lectura, la tabla se copia al heap al primer cambio).
+ * write() escribe en un fichero temporal y lo renombra.
+ */
+public class PolicyFile {
+    public static final int MAGIC = 0x4D445150;
+    public static final int VERSION = 1;
+    /** Claves de PackedStateEncoder. */
+    public static final int ENCODING_PACKED = 1;
+    static final int HEADER_BYTES = 128;
+    static final int PERSONA_OFFSET = 72;
+    static final int MAX_PERSONA_LENGTH = HEADER_BYTES - PERSONA_OFFSET - 1;
+
+    private final String persona;
+    private final long mapHash;
+    private final int encoding;
+    private final int keyBits;
+    private final double alpha, gamma, epsilon;
+    private final int episode;
+    private final QTable table;
+
+    public PolicyFile(String persona, long mapHash, int keyBits, double alpha, double gamma, double epsilon, int episode, QTable table) {
+        this(persona, mapHash, ENCODING_PACKED, keyBits, alpha, gamma, epsilon, episode, table);
+    }
+
+    private PolicyFile(String persona, long mapHash, int encoding, int keyBits, double alpha, double gamma, double epsilon, int episode, QTable table) {
+        this.persona = persona;
+        this.mapHash = mapHash;
+        this.encoding = encoding;
+        this.keyBits = keyBits;
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.epsilon = epsilon;
+        this.episode = episode;
+        this.table = table;
+    }
+
+    public String getPersona() { return persona; }
+    public long getMapHash() { return mapHash; }
+    public int getEncoding() { return encoding; }
+    public int getKeyBits() { return keyBits; }
+    public double getAlpha() { return alpha; }
+    public double getGamma() { return gamma; }
+    public double getEpsilon() { return epsilon; }
+    /** Episodio de un checkpoint, -1 en una política final. */
+    public int getEpisode() { return episode; }
+    public QTable getTable() { return table; }
+
+    /** Cierto si el fichero empieza con MAGIC; los .ser de ObjectOutputStream no. */
+    public static boolean isPolicyFile(Path file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file.toFile()))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static PolicyFile read(Path file) throws IOException {
+        // un mapeo privado necesita abrir el fichero para escribir; si no se puede, se mapea sólo para leer
+        boolean writable = Files.isWritable(file);
+        try (FileChannel channel = writable ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Truncated policy file: " + file);
+            ByteBuffer mapped = channel.map(writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC) throw new IOException("Not a policy file: " + file);
+            if (mapped.getInt(4) != VERSION) throw new IOException("Unsupported policy version " + mapped.getInt(4) + ": " + file);
+            int capacity = mapped.getInt(60);
+            int size = mapped.getInt(64);
+            if (Integer.bitCount(capacity) != 1 || channel.size() != HEADER_BYTES + (long) capacity * BufferQTable.RECORD_BYTES) {
+                throw new IOException("Truncated policy file: " + file);
+            }
+            byte[] name = new byte[Math.min(mapped.get(PERSONA_OFFSET) & 0xFF, MAX_PERSONA_LENGTH)];
+            for (int i = 0; i < name.length; i++) name[i] = mapped.get(PERSONA_OFFSET + 1 + i);
+            mapped.position(HEADER_BYTES);
+            BufferQTable table = new BufferQTable(mapped.slice(), capacity, size);
+            return new PolicyFile(new String(name, StandardCharsets.US_ASCII), mapped.getLong(16), mapped.getInt(8), mapped.getInt(12),
+                    mapped.getDouble(24), mapped.getDouble(32), mapped.getDouble(40), mapped.getInt(48), table);
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        BufferQTable records = (table instanceof BufferQTable) ? (BufferQTable) table : BufferQTable.copyOf(table);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, encoding);
+        header.putInt(12, keyBits);
+        header.putLong(16, mapHash);
+        header.putDouble(24, alpha);
+        header.putDouble(32, gamma);
+        header.putDouble(40, epsilon);
+        header.putInt(48, episode);
+        header.putInt(60, records.capacity());
+        header.putInt(64, records.size());
+        byte[] name = persona.getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(name.length, MAX_PERSONA_LENGTH);
+        header.put(PERSONA_OFFSET, (byte) length);
+        for (int i = 0; i < length; i++) header.put(PERSONA_OFFSET + 1 + i, name[i]);
+
+        Path folder = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer body = records.records();
+                while (header.hasRemaining()) channel.write(header);
+                while (body.hasRemaining()) channel.write(body);
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
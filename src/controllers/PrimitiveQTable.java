@@ -0,0 +1,130 @@
+package controllers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * QTable de direccionamiento abierto (sondeo lineal) sobre arrays primitivos:
+ * las claves en un long[] y los Q-values en línea en un único double[], cuatro
+ * por slot. Sin objetos por estado, cada entrada ocupa 40 bytes más el hueco
+ * del factor de carga, frente a más de 100 en un HashMap<Long, double[]>.
+ */
+public class PrimitiveQTable implements QTable, Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_CAPACITY = 1024;
+    static final double MAX_LOAD = 0.6;
+
+    private long[] keys;
+    private double[] values;
+    private int size;
+    private int mask;
+
+    public PrimitiveQTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** @param expectedStates estados que se esperan, para no tener que crecer */
+    public PrimitiveQTable(int expectedStates) {
+        int capacity = Integer.highestOneBit((int) Math.max(16, expectedStates / MAX_LOAD) * 2 - 1);
+        allocate(capacity);
+    }
+
+    /** Copia en el heap de cualquier QTable, por ejemplo para serializarla. */
+    public static PrimitiveQTable copyOf(QTable source) {
+        PrimitiveQTable result = new PrimitiveQTable(source.size());
+        for (int i = 0; i < source.capacity(); i++) {
+            long key = source.getKey(i);
+            if (key == EMPTY) continue;
+            int slot = ~result.getOrInsert(key);
+            for (int action = 0; action < ACTIONS; action++) result.set(slot, action, source.get(i, action));
+        }
+        return result;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity * ACTIONS];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    // Mezcla final de MurmurHash3: las claves consecutivas (casillas vecinas) se reparten bien
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    @Override
+    public int find(long state) {
+        int slot = hash(state) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == state) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getOrInsert(long state) {
+        int slot = hash(state) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == state) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (size + 1 > keys.length * MAX_LOAD) {
+            grow();
+            slot = hash(state) & mask;
+            while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+        }
+        keys[slot] = state;
+        size++;
+        return ~slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            System.arraycopy(oldValues, i * ACTIONS, values, slot * ACTIONS, ACTIONS);
+            size++;
+        }
+    }
+
+    @Override
+    public double get(int slot, int action) { return values[slot * ACTIONS + action]; }
+
+    @Override
+    public void set(int slot, int action, double value) { values[slot * ACTIONS + action] = value; }
+
+    @Override
+    public double max(int slot) {
+        int base = slot * ACTIONS;
+        double result = values[base];
+        for (int i = 1; i < ACTIONS; i++) {
+            if (values[base + i] > result) result = values[base + i];
+        }
+        return result;
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public int capacity() { return keys.length; }
+
+    @Override
+    public long getKey(int slot) { return keys[slot]; }
+
+    @Override
+    public long getMemoryBytes() { return 8L * keys.length + 8L * values.length; }
+}
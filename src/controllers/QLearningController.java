@@ -1,6 +1,7 @@
 package controllers;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Random;
 import dungeon.play.PlayMap;
@@ -14,6 +15,13 @@ public class QLearningController extends Controller implements Serializable {
 
     // Tabla Q: Clave = String (Estado), Valor = double[] (Q-values para UP, RIGHT, DOWN, LEFT)
     public HashMap<String, double[]> qTable;
+
+    // Tabla Q con claves empaquetadas (ver PackedStateEncoder), usada cuando packedStates está activo;
+    // se guarda con PolicyFile, nunca al serializar el controlador
+    public transient QTable packedQTable;
+    private boolean packedStates = false;
+    private transient PackedStateEncoder encoder;
+    private transient double[] slotValues;
     
     // Parámetros del Paper
     private double alpha = 0.5;
@@ -30,24 +38,43 @@ public class QLearningController extends Controller implements Serializable {
         super(map, controllingChar, "QLearning_" + persona.name());
         this.currentPersona = persona;
         this.qTable = new HashMap<>();
+        this.packedQTable = new PrimitiveQTable();
         this.random = new Random();
     }
 
     @Override
     public int getNextAction() {
-        String state = getStateRepresentation();
+        String state = packedStates ? null : getStateRepresentation();
+        long packedState = packedStates ? getPackedState() : -1;
 
         // Exploración
         if (random.nextDouble() < epsilon) {
             return random.nextInt(4);
         }
 
-        if (!qTable.containsKey(state)) {
-            qTable.put(state, new double[]{0, 0, 0, 0});
-            return random.nextInt(4); 
+        double[] qValues;
+        if (packedQTable instanceof ConcurrentQTable && packedStates) {
+            // Tabla compartida con otros hilos: se copian los valores en vez de usar el slot
+            if (slotValues == null) slotValues = new double[QTable.ACTIONS];
+            ConcurrentQTable shared = (ConcurrentQTable) packedQTable;
+            if (!shared.getValues(packedState, slotValues)) {
+                shared.insertIfAbsent(packedState);
+                return random.nextInt(4);
+            }
+            qValues = slotValues;
+        } else if (packedStates) {
+            // Una sola búsqueda: un slot negativo indica que el estado es nuevo
+            int slot = packedQTable.getOrInsert(packedState);
+            if (slot < 0) return random.nextInt(4);
+            qValues = readSlot(slot);
+        } else {
+            qValues = qTable.get(state);
+            if (qValues == null) {
+                qTable.put(state, new double[]{0, 0, 0, 0});
+                return random.nextInt(4); 
+            }
         }
 
-        double[] qValues = qTable.get(state);
         double maxQ = -Double.MAX_VALUE;
 
         // Paso 1: Encontrar el valor máximo
@@ -86,6 +113,105 @@ public class QLearningController extends Controller implements Serializable {
         qTable.put(state, qValues);
     }
 
+    // Misma regla sobre la tabla de claves empaquetadas
+    public void updateQTable(long state, int action, double reward, long nextState) {
+        updateQTable(state, action, reward, nextState, false, 1.0);
+    }
+
+    /**
+     * Regla de Q-learning con el paso alpha escalado por 'weight' (el peso de
+     * muestreo de ReplayBuffer); si 'done', s' es terminal y no aporta max Q(s',a').
+     * @return el error TD, reward + gamma * max Q(s',a') - Q(s,a), antes de actualizar
+     */
+    public double updateQTable(long state, int action, double reward, long nextState, boolean done, double weight) {
+        double step = alpha * weight;
+        if (packedQTable instanceof ConcurrentQTable) {
+            ConcurrentQTable shared = (ConcurrentQTable) packedQTable;
+            return shared.update(state, action, step, reward + (done ? 0.0 : gamma * shared.maxValue(nextState)));
+        }
+        // nextState se busca antes de insertar state, que puede reorganizar la tabla
+        int next = done ? -1 : packedQTable.find(nextState);
+        double maxNextQ = (next < 0) ? 0.0 : packedQTable.max(next);
+
+        int slot = packedQTable.getOrInsert(state);
+        if (slot < 0) slot = ~slot;
+        double currentQ = packedQTable.get(slot, action);
+        double error = reward + gamma * maxNextQ - currentQ;
+        packedQTable.set(slot, action, currentQ + step * error);
+        return error;
+    }
+
+    // Acción voraz de la tabla empaquetada en 'state' (la primera si empatan), -1 si el estado no está
+    public int getGreedyAction(long state) {
+        int slot = packedQTable.find(state);
+        if (slot < 0) return -1;
+        int best = 0;
+        for (int i = 1; i < QTable.ACTIONS; i++) {
+            if (packedQTable.get(slot, i) > packedQTable.get(slot, best)) best = i;
+        }
+        return best;
+    }
+
+    private double[] readSlot(int slot) {
+        if (slotValues == null) slotValues = new double[QTable.ACTIONS];
+        for (int i = 0; i < QTable.ACTIONS; i++) slotValues[i] = packedQTable.get(slot, i);
+        return slotValues;
+    }
+
+    // Clave del estado actual en O(entidades): casilla del héroe, nivel de HP y entidades vivas
+    public long getPackedState() {
+        return getEncoder().encode(getAbstractHP());
+    }
+
+    private PackedStateEncoder getEncoder() {
+        if (encoder == null || !encoder.matches(map)) encoder = new PackedStateEncoder(map);
+        return encoder;
+    }
+
+    public boolean isPackedStates() { return packedStates; }
+
+    /**
+     * Activa las claves empaquetadas. Los estados ya aprendidos con claves
+     * String se traducen; si el mapa tiene demasiadas entidades para un long
+     * se sigue con claves String.
+     */
+    public void setPackedStates(boolean packed) {
+        if (packed && !getEncoder().fits()) {
+            System.out.println("Too many entities for packed states (" + getEncoder().getKeyBits() + " bits), using String states");
+            return;
+        }
+        if (packed && !packedStates && !qTable.isEmpty()) convertLegacyTable();
+        this.packedStates = packed;
+    }
+
+    private void convertLegacyTable() {
+        int skipped = 0;
+        for (java.util.Map.Entry<String, double[]> entry : qTable.entrySet()) {
+            long key = getEncoder().fromLegacy(entry.getKey());
+            if (key < 0) skipped++;
+            else putValues(key, entry.getValue());
+        }
+        if (skipped > 0) System.out.println(skipped + " states do not match this map and were dropped");
+        qTable = new HashMap<>();
+    }
+
+    private void putValues(long state, double[] qValues) {
+        int slot = packedQTable.getOrInsert(state);
+        if (slot < 0) slot = ~slot;
+        for (int i = 0; i < QTable.ACTIONS; i++) packedQTable.set(slot, i, qValues[i]);
+    }
+
+    /**
+     * Usa 'table' como tabla Q del modo empaquetado (por ejemplo una
+     * OffHeapQTable) y activa ese modo.
+     */
+    public void setPackedQTable(QTable table) {
+        this.packedQTable = table;
+        this.packedStates = true;
+    }
+
+    public int getQTableSize() { return packedStates ? packedQTable.size() : qTable.size(); }
+
     public String getStateRepresentation() {
         // Usamos StringBuilder para evitar crear miles de Strings basura
         // Capacidad aproximada: 12x12 tiles + un margen para HP
@@ -173,9 +299,22 @@ public class QLearningController extends Controller implements Serializable {
     }
 
     public void setEpsilon(double e) { this.epsilon = e; }
+    public double getAlpha() { return alpha; }
+    public double getGamma() { return gamma; }
     
     // Métodos para guardar/cargar la política aprendida
+    // Con claves empaquetadas se usa el formato binario de PolicyFile; con claves
+    // String, ObjectOutputStream como siempre. Al cargar se distingue por el MAGIC.
     public void savePolicy(String filename) {
+        if (packedStates) {
+            try {
+                toPolicyFile(-1).write(Paths.get(filename));
+                System.out.println("Policy saved to " + filename);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
             oos.writeObject(qTable);
             System.out.println("Policy saved to " + filename);
@@ -186,9 +325,19 @@ public class QLearningController extends Controller implements Serializable {
 
     @SuppressWarnings("unchecked")
     public void loadPolicy(String filename) {
+        if (PolicyFile.isPolicyFile(Paths.get(filename))) {
+            try {
+                if (installPolicyFile(PolicyFile.read(Paths.get(filename)), filename)) {
+                    System.out.println("Policy loaded from " + filename + " with " + getQTableSize() + " states.");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            this.qTable = (HashMap<String, double[]>) ois.readObject();
-            System.out.println("Policy loaded from " + filename + " with " + qTable.size() + " states.");
+            installTable(ois.readObject());
+            System.out.println("Policy loaded from " + filename + " with " + getQTableSize() + " states.");
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -197,6 +346,14 @@ public class QLearningController extends Controller implements Serializable {
 // --- MÉTODOS PARA CHECKPOINTS ---
 
     public void saveCheckpoint(String filename, int currentEpisode) {
+        if (packedStates) {
+            try {
+                toPolicyFile(currentEpisode).write(Paths.get(filename));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
             oos.writeObject(qTable);       // Guardar la tabla Q
             oos.writeInt(currentEpisode);  // Guardar el número de episodio actual
@@ -205,11 +362,73 @@ public class QLearningController extends Controller implements Serializable {
         }
     }
 
+    private PolicyFile toPolicyFile(int episode) {
+        return toPolicyFile(episode, (packedQTable instanceof ConcurrentQTable) ? ((ConcurrentQTable) packedQTable).snapshot() : packedQTable);
+    }
+
+    /** Política o checkpoint con 'table', por ejemplo una copia que otro hilo va a escribir. */
+    public PolicyFile toPolicyFile(int episode, QTable table) {
+        return new PolicyFile(currentPersona.name(), getEncoder().getLayoutHash(), getEncoder().getKeyBits(),
+                alpha, gamma, epsilon, episode, table);
+    }
+
+    // Sólo se usa una política guardada para este mismo mapa; recupera alpha y gamma
+    private boolean installPolicyFile(PolicyFile policy, String filename) {
+        if (policy.getEncoding() != PolicyFile.ENCODING_PACKED || policy.getMapHash() != getEncoder().getLayoutHash()) {
+            System.out.println("Policy " + filename + " was trained on a different map or state encoding, ignored");
+            return false;
+        }
+        if (!policy.getPersona().equals(currentPersona.name())) {
+            System.out.println("Warning: " + filename + " was trained for " + policy.getPersona());
+        }
+        this.alpha = policy.getAlpha();
+        this.gamma = policy.getGamma();
+        setPackedQTable(policy.getTable());
+        return true;
+    }
+
+    // Una QTable (o un HashMap con claves Long) activa el modo empaquetado; las
+    // tablas con claves String (el formato original) se traducen si ya estaba activo
+    @SuppressWarnings("unchecked")
+    private void installTable(Object stored) {
+        if (stored instanceof QTable) {
+            this.packedQTable = (QTable) stored;
+            this.packedStates = true;
+            return;
+        }
+        HashMap<?, double[]> table = (HashMap<?, double[]>) stored;
+        Object firstKey = table.isEmpty() ? null : table.keySet().iterator().next();
+        if (firstKey instanceof Long || (firstKey == null && packedStates)) {
+            this.packedQTable = new PrimitiveQTable(table.size());
+            for (java.util.Map.Entry<?, double[]> entry : table.entrySet()) putValues((Long) entry.getKey(), entry.getValue());
+            this.packedStates = true;
+        } else {
+            this.qTable = (HashMap<String, double[]>) table;
+            if (packedStates) {
+                this.packedStates = false;
+                setPackedStates(true);
+            }
+        }
+    }
+
     // Carga la tabla y RETORNA el episodio donde se quedó (o 0 si falla)
     @SuppressWarnings("unchecked")
     public int loadCheckpoint(String filename) {
+        if (PolicyFile.isPolicyFile(Paths.get(filename))) {
+            try {
+                PolicyFile checkpoint = PolicyFile.read(Paths.get(filename));
+                if (!installPolicyFile(checkpoint, filename)) return 0;
+                // se va a entrenar sobre ella y a reemplazar el fichero: se copia al heap en vez
+                // de dejarla mapeada (sólo loadPolicy, de lectura, usa el fichero tal cual)
+                setPackedQTable(PrimitiveQTable.copyOf(packedQTable));
+                System.out.println(">>> RESUMING from Checkpoint: Episode " + checkpoint.getEpisode());
+                return Math.max(0, checkpoint.getEpisode());
+            } catch (IOException e) {
+                return 0;
+            }
+        }
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            this.qTable = (HashMap<String, double[]>) ois.readObject();
+            installTable(ois.readObject());
             int episode = ois.readInt();
             System.out.println(">>> RESUMING from Checkpoint: Episode " + episode);
             return episode;
@@ -0,0 +1,36 @@
+package controllers;
+
+/**
+ * Tabla Q indexada por claves de estado empaquetadas (ver PackedStateEncoder).
+ * Cada estado ocupa un slot con ACTIONS valores; un slot sirve hasta la
+ * siguiente inserción, que puede reorganizar la tabla.
+ */
+public interface QTable {
+    int ACTIONS = 4;
+    long EMPTY = -1L;
+
+    /** Slot del estado, o -1 si no está en la tabla. */
+    int find(long state);
+
+    /**
+     * Slot del estado. Si no estaba se crea con Q = 0 y se devuelve ~slot
+     * (un valor negativo), así quien llama sabe que es nuevo con una sola búsqueda.
+     */
+    int getOrInsert(long state);
+
+    double get(int slot, int action);
+    void set(int slot, int action, double value);
+
+    /** Mayor Q del slot. */
+    double max(int slot);
+
+    /** Número de estados. */
+    int size();
+
+    /** Número de slots; getKey(slot) es EMPTY en los libres. */
+    int capacity();
+    long getKey(int slot);
+
+    /** Bytes que ocupa la tabla. */
+    long getMemoryBytes();
+}
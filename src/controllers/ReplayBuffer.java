@@ -0,0 +1,152 @@
+package controllers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Memoria de experiencias para repetir transiciones ya jugadas. Simular es lo
+ * caro, así que cada paso se guarda y se vuelve a usar en varias
+ * actualizaciones de la tabla Q.
+ *
+ * Las transiciones (s, a, r, s', fin) viven en arrays primitivos paralelos
+ * usados como anillo: al llenarse, la nueva sustituye a la más antigua.
+ * El muestreo es uniforme o priorizado por el error TD: prioridad
+ * (|δ| + PRIORITY_EPSILON)^priorityAlpha, guardada en un árbol de sumas para
+ * muestrear y actualizar en O(log n). Las transiciones nuevas entran con la
+ * mayor prioridad vista, para que se repitan al menos una vez. Con muestreo
+ * priorizado el paso se corrige con el peso (n·P(i))^-beta, normalizado por
+ * el mayor.
+ *
+ * No es segura entre hilos: cada entrenamiento tiene la suya.
+ */
+public class ReplayBuffer {
+    static final double PRIORITY_EPSILON = 0.01;
+
+    private final int capacity;
+    private final long[] states;
+    private final byte[] actions;
+    private final double[] rewards;
+    private final long[] nextStates;
+    private final boolean[] terminal;
+
+    private final boolean prioritized;
+    // Árboles de sumas y de mínimos: la raíz en 1 y la hoja de la transición i en leaves + i
+    private final double[] tree;
+    private final double[] minTree;
+    private final int leaves;
+    private double priorityAlpha = 0.6;
+    private double beta = 0.4;
+    private double maxPriority = 1.0;
+
+    private final Random random;
+    private final int[] batch;
+    private int next;
+    private int size;
+
+    public ReplayBuffer(int capacity, boolean prioritized) {
+        this(capacity, prioritized, new Random());
+    }
+
+    public ReplayBuffer(int capacity, boolean prioritized, Random random) {
+        this.capacity = capacity;
+        this.states = new long[capacity];
+        this.actions = new byte[capacity];
+        this.rewards = new double[capacity];
+        this.nextStates = new long[capacity];
+        this.terminal = new boolean[capacity];
+        this.prioritized = prioritized;
+        this.leaves = prioritized ? Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) : 0;
+        this.tree = prioritized ? new double[2 * leaves] : null;
+        this.minTree = prioritized ? new double[2 * leaves] : null;
+        if (prioritized) Arrays.fill(minTree, Double.MAX_VALUE);
+        this.random = random;
+        this.batch = new int[64];
+    }
+
+    /** Exponentes del muestreo priorizado: alpha para las prioridades y beta para corregir el sesgo. */
+    public void setPriorityExponents(double alpha, double beta) {
+        this.priorityAlpha = alpha;
+        this.beta = beta;
+    }
+
+    public boolean isPrioritized() { return prioritized; }
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+
+    public void add(long state, int action, double reward, long nextState, boolean done) {
+        int i = next;
+        states[i] = state;
+        actions[i] = (byte) action;
+        rewards[i] = reward;
+        nextStates[i] = nextState;
+        terminal[i] = done;
+        if (prioritized) setPriority(i, maxPriority);
+        next = (next + 1 == capacity) ? 0 : next + 1;
+        if (size < capacity) size++;
+    }
+
+    /**
+     * Elige 'count' transiciones (con repetición) y deja sus índices en 'out'.
+     * @return cuántas se han elegido, 0 si la memoria está vacía
+     */
+    public int sample(int[] out, int count) {
+        if (size == 0) return 0;
+        count = Math.min(count, out.length);
+        for (int k = 0; k < count; k++) {
+            out[k] = prioritized ? samplePrioritized() : random.nextInt(size);
+        }
+        return count;
+    }
+
+    /**
+     * Aplica al controlador 'batchSize' actualizaciones con transiciones
+     * muestreadas y, con muestreo priorizado, renueva sus prioridades.
+     */
+    public void replay(QLearningController agent, int batchSize) {
+        while (batchSize > 0) {
+            int count = sample(batch, batchSize);
+            if (count == 0) return;
+            double minProbability = prioritized ? minTree[1] / tree[1] : 0;
+            for (int k = 0; k < count; k++) {
+                int i = batch[k];
+                double weight = 1.0;
+                if (prioritized) {
+                    // (n·P(i))^-beta dividido por el mayor, que es el de la menor prioridad
+                    weight = Math.pow(tree[leaves + i] / tree[1] / minProbability, -beta);
+                }
+                double error = agent.updateQTable(states[i], actions[i], rewards[i], nextStates[i], terminal[i], weight);
+                if (prioritized) {
+                    double priority = Math.pow(Math.abs(error) + PRIORITY_EPSILON, priorityAlpha);
+                    if (priority > maxPriority) maxPriority = priority;
+                    setPriority(i, priority);
+                }
+            }
+            batchSize -= count;
+        }
+    }
+
+    // Baja desde la raíz hasta la hoja que contiene un punto uniforme de [0, total)
+    private int samplePrioritized() {
+        double point = random.nextDouble() * tree[1];
+        int node = 1;
+        while (node < leaves) {
+            node *= 2;
+            if (point >= tree[node] && tree[node + 1] > 0) {
+                point -= tree[node];
+                node++;
+            }
+        }
+        return Math.min(node - leaves, size - 1);
+    }
+
+    // Cada padre se recalcula con sus hijos, así las sumas no acumulan error
+    private void setPriority(int i, double priority) {
+        int node = leaves + i;
+        tree[node] = priority;
+        minTree[node] = priority;
+        for (node /= 2; node >= 1; node /= 2) {
+            tree[node] = tree[2 * node] + tree[2 * node + 1];
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+        }
+    }
+}
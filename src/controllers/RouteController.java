@@ -0,0 +1,155 @@
+package controllers;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import dungeon.play.GameCharacter;
+import dungeon.play.PlayMap;
+
+/**
+ * Base for controllers that plan, once per episode, the order in which to
+ * visit entity tiles and then walk that plan. Between two targets the hero
+ * takes the shortest walk that does not step on any other living monster,
+ * treasure or potion, or on an exit, so nothing is consumed out of order.
+ * Tiles are addressed as index = y*sizeX+x.
+ */
+public abstract class RouteController extends Controller {
+	public final static int UNREACHABLE = Integer.MAX_VALUE;
+
+	int[] route;
+	int routePosition;
+	GameCharacter plannedFor;
+
+	public RouteController(PlayMap map, GameCharacter controllingChar, String label){
+		super(map,controllingChar,label);
+	}
+
+	/**
+	 * Tiles to visit in order, normally ending on an exit. Called on the
+	 * first action of every episode.
+	 */
+	protected abstract int[] planRoute();
+
+	/** The current episode's plan. */
+	public int[] getRoute(){
+		ensurePlan();
+		return Arrays.copyOf(route, route.length);
+	}
+
+	@Override
+	public void reset(){
+		route = null;
+		plannedFor = null;
+	}
+
+	void ensurePlan(){
+		// a new episode creates a new hero
+		if(route==null || plannedFor!=map.getHero()){
+			plannedFor = map.getHero();
+			route = planRoute();
+			routePosition = 0;
+		}
+	}
+
+	public int getNextAction(){
+		ensurePlan();
+		int heroTile = tileOf(map.getHero());
+		boolean[] blocking = getBlockingTiles();
+		// targets that were consumed (or reached) no longer block and are skipped
+		while(routePosition<route.length && (route[routePosition]==heroTile || !blocking[route[routePosition]])){
+			routePosition++;
+		}
+		if(routePosition>=route.length){ return PlayMap.IDLE; }
+		int target = route[routePosition];
+		int action = stepTowards(heroTile, target, distancesFrom(target, blocking), blocking);
+		if(action==PlayMap.IDLE){
+			action = stepTowards(heroTile, target, distancesFrom(target, null), null);
+		}
+		return action;
+	}
+
+	int stepTowards(int heroTile, int target, int[] distances, boolean[] blocking){
+		int result = PlayMap.IDLE;
+		int closest = UNREACHABLE;
+		for(int dir=0;dir<4;dir++){
+			int next = neighbor(heroTile, dir);
+			if(next<0 || distances[next]>=closest){ continue; }
+			if(blocking!=null && blocking[next] && next!=target){ continue; }
+			closest = distances[next];
+			result = dir;
+		}
+		return result;
+	}
+
+	protected int tileOf(GameCharacter character){
+		return character.getY()*map.getMapSizeX()+character.getX();
+	}
+
+	/** Tiles of living monsters, treasures and potions, and of exits other than the entrance. */
+	protected boolean[] getBlockingTiles(){
+		boolean[] result = new boolean[map.getMapSizeX()*map.getMapSizeY()];
+		markAlive(result, map.getMonsterChars());
+		markAlive(result, map.getRewardChars());
+		markAlive(result, map.getPotionChars());
+		int[] exits = getExitTiles();
+		for(int i=0;i<exits.length;i++){ result[exits[i]] = true; }
+		return result;
+	}
+
+	void markAlive(boolean[] result, Vector<? extends GameCharacter> chars){
+		for(int i=0;i<chars.size();i++){
+			if(chars.get(i).isAlive()){ result[tileOf(chars.get(i))] = true; }
+		}
+	}
+
+	/** Exits that end the level, i.e. every exit but the entrance. */
+	protected int[] getExitTiles(){
+		int[] result = new int[map.getExitLength()];
+		int count = 0;
+		for(int i=0;i<map.getExitLength();i++){
+			int x = (int)(map.getExit(i).x);
+			int y = (int)(map.getExit(i).y);
+			if(map.isExit(x,y)){ result[count++] = y*map.getMapSizeX()+x; }
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Walking distance from 'source' to every tile. Blocking tiles other
+	 * than the source get a distance but are never walked through; with a
+	 * null 'blocking' every passable tile is walkable.
+	 */
+	protected int[] distancesFrom(int source, boolean[] blocking){
+		int[] result = new int[map.getMapSizeX()*map.getMapSizeY()];
+		Arrays.fill(result, UNREACHABLE);
+		int[] queue = new int[result.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		result[source] = 0;
+		while(head<tail){
+			int u = queue[head++];
+			if(u!=source && blocking!=null && blocking[u]){ continue; }
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u, dir);
+				if(v>=0 && result[v]==UNREACHABLE){
+					result[v] = result[u]+1;
+					queue[tail++] = v;
+				}
+			}
+		}
+		return result;
+	}
+
+	/** The passable tile next to 'tile' in the given direction, or -1. */
+	protected int neighbor(int tile, int dir){
+		int x = tile%map.getMapSizeX();
+		int y = tile/map.getMapSizeX();
+		if(dir==PlayMap.UP){ y--; }
+		if(dir==PlayMap.RIGHT){ x++; }
+		if(dir==PlayMap.DOWN){ y++; }
+		if(dir==PlayMap.LEFT){ x--; }
+		if(!map.isValidMove(x,y)){ return -1; }
+		return y*map.getMapSizeX()+x;
+	}
+}
@@ -0,0 +1,60 @@
+package controllers;
+
+import dungeon.play.GameCharacter;
+import dungeon.play.PlayMap;
+import dungeon.play.SurvivalRouter;
+
+/**
+ * Walks the shortest route to an exit on which the hero survives, as found
+ * by PlayMap.findSurvivalRoute(): monsters are fought and potions drunk only
+ * when they lie on, or are worth a detour to keep, such a route. This is the
+ * SURVIVALIST/RUNNER question answered directly instead of by training. If
+ * no survivable route exists it heads for the exit like PathfindingController.
+ */
+public class SurvivalController extends Controller {
+	SurvivalRouter.Route route;
+	int routePosition;
+	GameCharacter plannedFor;
+	PathfindingController fallback;
+	
+	public SurvivalController(PlayMap map, GameCharacter controllingChar){
+		super(map,controllingChar,"SurvivalController");
+		fallback = new PathfindingController(map,controllingChar);
+	}
+	public SurvivalController(PlayMap map, GameCharacter controllingChar, String label){
+		super(map,controllingChar,label);
+		fallback = new PathfindingController(map,controllingChar);
+	}
+	
+	@Override
+	public void reset(){
+		route = null;
+		plannedFor = null;
+	}
+	
+	/** The route currently being followed, null if there is none. */
+	public SurvivalRouter.Route getRoute(){ return route; }
+	
+	public int getNextAction(){
+		int x = map.getHero().getX();
+		int y = map.getHero().getY();
+		// replan for a new episode, or if the hero is no longer where the route expects
+		if(plannedFor!=map.getHero() || (route!=null && (route.getX(routePosition)!=x || route.getY(routePosition)!=y))){
+			plannedFor = map.getHero();
+			route = map.findSurvivalRoute();
+			routePosition = 0;
+		}
+		if(route==null){ 
+			fallback.map = map;
+			return fallback.getBestPathAction(); 
+		}
+		if(routePosition>=route.getSteps()){ return PlayMap.IDLE; }
+		routePosition++;
+		int nextX = route.getX(routePosition);
+		int nextY = route.getY(routePosition);
+		if(nextY<y){ return PlayMap.UP; }
+		if(nextX>x){ return PlayMap.RIGHT; }
+		if(nextY>y){ return PlayMap.DOWN; }
+		return PlayMap.LEFT;
+	}
+}
@@ -58,6 +58,9 @@ public class Dungeon {
 	public int getMapSizeX(){ return mapSizeX; }
 	public int getMapSizeY(){ return mapSizeY; }
 	public DungeonPaths getPaths(){ return paths; }
+	
+	/** Starts a batch of edits whose path data is repaired on commit, see DungeonEdit. */
+	public DungeonEdit beginEdit(){ return new DungeonEdit(this); }
 
 	public int getTileDifference(Dungeon other){
 		if(other.mapSizeX!=this.mapSizeX || other.mapSizeY!=this.mapSizeY){
@@ -210,10 +213,16 @@ public class Dungeon {
 	}
 	
 	public void setPassable(int x, int y){
-		if(isWithinBounds(x,y)){ impassable[x][y]=false; }
+		if(isWithinBounds(x,y)){ 
+			impassable[x][y]=false; 
+			paths.tileChanged(x, y);
+		}
 	}
 	public void setImpassable(int x, int y){
-		if(isWithinBounds(x,y)){ impassable[x][y]=true; }
+		if(isWithinBounds(x,y)){ 
+			impassable[x][y]=true; 
+			paths.tileChanged(x, y);
+		}
 	}
 	
 	public void setPassable(boolean[][] pattern, int centerX, int centerY){
@@ -222,7 +231,7 @@ public class Dungeon {
 				if(pattern[x][y]){
 					int global_x = centerX-pattern.length/2+x*pattern.length;
 					int global_y = centerY-pattern[0].length/2+y*pattern[0].length;
-					if(isWithinBounds(global_x,global_y)){ impassable[global_x][global_y]=false; }
+					if(isWithinBounds(global_x,global_y)){ setPassable(global_x,global_y); }
 				}
 			}
 		}
@@ -234,7 +243,7 @@ public class Dungeon {
 				if(pattern[x][y]){
 					int global_x = centerX-pattern.length/2+x;
 					int global_y = centerY-pattern[0].length/2+y;
-					if(isWithinBounds(global_x,global_y) ){ impassable[global_x][global_y]=true; }
+					if(isWithinBounds(global_x,global_y) ){ setImpassable(global_x,global_y); }
 				}
 			}
 		}
@@ -243,7 +252,7 @@ public class Dungeon {
 	public void setImpassableChunk(int centerX, int centerY, int sizeX, int sizeY){
 		for(int x=centerX-sizeX/2;x<centerX+sizeX/2;x++){
 			for(int y=centerY-sizeY/2;y<centerY+sizeY/2;y++){
-				if(isWithinBounds(x,y)){ impassable[x][y]=true; }
+				if(isWithinBounds(x,y)){ setImpassable(x,y); }
 			}
 		}
 	}
@@ -289,9 +298,12 @@ public class Dungeon {
 		return false;
 	}
 	
+	/**
+	 * Marks the sketch as complete. Paths are not searched here: the path 
+	 * sets are computed the first time they are requested.
+	 */
 	public void finalizeSketch(){
-		paths.init();
-		paths.calculateAllPaths();
+		paths.invalidate();
 	}
 	
 	public boolean isPassable(int x, int y){
@@ -0,0 +1,91 @@
+package dungeon;
+
+import java.util.Arrays;
+
+/**
+ * A batch of edits to a dungeon whose cached paths are repaired rather 
+ * than recomputed, for editors and generators that change a few tiles at 
+ * a time. Edits reach the dungeon at once, but its connectivity, distances 
+ * and path sets are only brought up to date by commit(), so queries made 
+ * in between may be stale. A tile changed and then changed back costs 
+ * nothing. After commit() the same session can take the next batch.
+ */
+public class DungeonEdit {
+	final Dungeon dungeon;
+	// passability of each touched tile when the batch began, indexed y*sizeX+x
+	boolean[] touched;
+	boolean[] wasPassable;
+	int[] touchedTiles;
+	int touchedCount;
+	boolean entitiesChanged;
+	
+	DungeonEdit(Dungeon dungeon){
+		this.dungeon = dungeon;
+		int tiles = dungeon.getMapSizeX()*dungeon.getMapSizeY();
+		touched = new boolean[tiles];
+		wasPassable = new boolean[tiles];
+		touchedTiles = new int[tiles];
+	}
+	
+	public Dungeon getDungeon(){ return dungeon; }
+	/** Number of tiles touched since the last commit. */
+	public int getTouchedTiles(){ return touchedCount; }
+	
+	void touch(int x, int y){
+		int tile = y*dungeon.getMapSizeX()+x;
+		if(touched[tile]){ return; }
+		touched[tile] = true;
+		wasPassable[tile] = dungeon.isPassable(x,y);
+		touchedTiles[touchedCount++] = tile;
+	}
+	
+	public void setPassable(int x, int y){
+		if(!dungeon.isWithinBounds(x,y)){ return; }
+		touch(x,y);
+		dungeon.setPassable(x,y);
+	}
+	public void setImpassable(int x, int y){
+		if(!dungeon.isWithinBounds(x,y)){ return; }
+		touch(x,y);
+		dungeon.setImpassable(x,y);
+	}
+	
+	public void setImpassableChunk(int centerX, int centerY, int sizeX, int sizeY){
+		for(int x=centerX-sizeX/2;x<centerX+sizeX/2;x++){
+			for(int y=centerY-sizeY/2;y<centerY+sizeY/2;y++){
+				setImpassable(x,y);
+			}
+		}
+	}
+	
+	public boolean addMonster(int x, int y){ return entityChanged(dungeon.addMonster(x,y)); }
+	public boolean removeMonster(int x, int y){ return entityChanged(dungeon.removeMonster(x,y)); }
+	public boolean addReward(int x, int y){ return entityChanged(dungeon.addReward(x,y)); }
+	public boolean removeReward(int x, int y){ return entityChanged(dungeon.removeReward(x,y)); }
+	
+	boolean entityChanged(boolean changed){
+		entitiesChanged |= changed;
+		return changed;
+	}
+	
+	/** Repairs the dungeon's cached paths for every edit since the last commit. */
+	public void commit(){
+		int[] opened = new int[touchedCount];
+		int[] closed = new int[touchedCount];
+		int openedCount = 0;
+		int closedCount = 0;
+		int sizeX = dungeon.getMapSizeX();
+		for(int i=0;i<touchedCount;i++){
+			int tile = touchedTiles[i];
+			boolean passable = dungeon.isPassable(tile%sizeX, tile/sizeX);
+			if(passable && !wasPassable[tile]){ opened[openedCount++] = tile; }
+			if(!passable && wasPassable[tile]){ closed[closedCount++] = tile; }
+			touched[tile] = false;
+		}
+		touchedCount = 0;
+		if(openedCount>0 || closedCount>0 || entitiesChanged){
+			dungeon.getPaths().applyEdits(Arrays.copyOf(opened, openedCount), Arrays.copyOf(closed, closedCount), entitiesChanged);
+		}
+		entitiesChanged = false;
+	}
+}
@@ -1,10 +1,13 @@
 package dungeon;
 
+import java.io.IOException;
 import java.util.Vector;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import ai.pathfinder.*;
 
@@ -12,35 +15,428 @@ import util.math2d.Matrix2D;
 import util.math2d.Point2D;
 import util.math2d.Vector2D;
 
+import libraries.CompactPath;
+import libraries.GridGraph;
+import libraries.HierarchicalGraph;
+import libraries.LandmarkHeuristic;
 import libraries.PathLibrary;
 
 public class DungeonPaths {
+	/** 
+	 * Search used by getPath and getDistance. ASTAR runs the Pathfinder 
+	 * library, JPS runs Jump Point Search on the same 4-connected grid. 
+	 * HPA searches a cluster hierarchy kept in step with tile edits; its 
+	 * paths are near-optimal rather than shortest. ALT runs A* guided by 
+	 * precomputed landmark distances.
+	 */
+	public enum Strategy { ASTAR, JPS, HPA, ALT }
+	
+	/** Above this many opened tiles in one batch of edits, everything is recomputed instead of repaired. */
+	public final static int MAX_REPAIR_SOURCES = 64;
+	
 	Dungeon parent;
 	Pathfinder astar;
+	GridGraph graph;
+	// published ready for the current strategy; anything that would change that clears it
+	volatile PathQueryService queries;
+	Strategy strategy = Strategy.ASTAR;
+	
+	// survives invalidate(): it is re-synced tile by tile instead of rebuilt
+	HierarchicalGraph hierarchy;
+	boolean hierarchySynced;
+	int clusterSize = HierarchicalGraph.DEFAULT_CLUSTER_SIZE;
+	
+	LandmarkHeuristic landmarks;
+	int landmarkCount = LandmarkHeuristic.DEFAULT_LANDMARKS;
+	
+	// path sets and connectivity are computed on first access, see invalidate()
+	Vector<CompactPath> exitPaths;
+	Vector<CompactPath> exit_monsterPaths;
+	Vector<CompactPath> monster_rewardPaths;
+	int[] components;
+	double[][] entityDistances;
 	
-	Vector<ArrayList> exitPaths;
-	Vector<ArrayList> exit_monsterPaths;
-	Vector<ArrayList> monster_rewardPaths;
+	// monster_rewardPaths by [monster][reward] index, rebuilt whenever the path set is replaced
+	CompactPath[][] monster_rewardIndex;
+	Vector<CompactPath> monster_rewardIndexSource;
 	
-	int disconnectedPaths;
+	// node-path copies handed out by getExitPaths() and its siblings, rebuilt whenever the path set is replaced
+	Vector<ArrayList> exitNodePaths, exit_monsterNodePaths, monster_rewardNodePaths;
+	Vector<CompactPath> exitNodePathsSource, exit_monsterNodePathsSource, monster_rewardNodePathsSource;
+	
+	int disconnectedPaths = -1;
+	
+	// when set, derived data is read from disk on first access and written back as it is computed
+	static volatile PathDataCache diskCache;
+	boolean diskChecked;
+	// cleared once edits change the layout in memory; such data is never written
+	boolean diskBacked;
 	
 	public DungeonPaths(Dungeon parent){ 
 		this.parent = parent;
 	}
 	
-	public void init(){
-		astar = new Pathfinder();
-		int spacing = 1;
-		astar.corners=false;
-		astar.setCuboidNodes(parent.getMapSizeX(), parent.getMapSizeY(), spacing);
-		for(Object temp : astar.nodes){
-			Node n = (Node)temp;
-			n.walkable = parent.isPassable((int)(n.x), (int)(n.y));
+	/**
+	 * Drops the search graph, path sets and connectivity so they are rebuilt 
+	 * from the parent dungeon the next time they are needed.
+	 */
+	public synchronized void invalidate(){
+		astar = null;
+		graph = null;
+		queries = null;
+		landmarks = null;
+		components = null;
+		entityDistances = null;
+		diskChecked = false;
+		diskBacked = false;
+		exitPaths = null;
+		exit_monsterPaths = null;
+		monster_rewardPaths = null;
+		exitNodePaths = null;
+		exit_monsterNodePaths = null;
+		monster_rewardNodePaths = null;
+		disconnectedPaths = -1;
+		hierarchySynced = false;
+	}
+	
+	/**
+	 * Brings the cached data up to date after a batch of edits, as committed 
+	 * by a DungeonEdit; 'opened' and 'closed' are the tiles whose 
+	 * passability changed. Component labels are patched around each changed 
+	 * tile. A stored path is searched again only if it crosses a closed 
+	 * tile, or if one BFS from an opened tile shows a shorter walk through 
+	 * it; every other path is still shortest. Pairs that are not connected 
+	 * are never searched.
+	 */
+	synchronized void applyEdits(int[] opened, int[] closed, boolean entitiesChanged){
+		boolean cached = components!=null || entityDistances!=null || exitPaths!=null || exit_monsterPaths!=null || monster_rewardPaths!=null;
+		if(!cached || opened.length>MAX_REPAIR_SOURCES){ 
+			invalidate(); 
+			return; 
+		}
+		// the repaired data is newer than anything the disk cache holds for the old layout
+		diskChecked = true;
+		diskBacked = false;
+		astar = null;
+		graph = null;
+		queries = null;
+		landmarks = null;
+		disconnectedPaths = -1;
+		GridGraph graph = getGraph();
+		if(components!=null){ repairComponents(graph, components, opened, closed); }
+		boolean[] closedTile = new boolean[graph.size()];
+		for(int i=0;i<closed.length;i++){ closedTile[closed[i]] = true; }
+		int[][] openDistances = new int[opened.length][];
+		for(int i=0;i<opened.length;i++){ openDistances[i] = graph.distancesFrom(opened[i]); }
+		
+		if(entityDistances!=null){
+			// closing a tile can lengthen any distance, and new entities change the indexing
+			if(closed.length>0 || entitiesChanged){ 
+				entityDistances = null; 
+			} else {
+				repairEntityDistances(openDistances);
+			}
+		}
+		if(exitPaths!=null){ exitPaths = repairPaths(exitPaths, parent.exits, parent.exits, closedTile, openDistances); }
+		if(exit_monsterPaths!=null){ exit_monsterPaths = repairPaths(exit_monsterPaths, parent.exits, parent.monsters, closedTile, openDistances); }
+		if(monster_rewardPaths!=null){ monster_rewardPaths = repairPaths(monster_rewardPaths, parent.monsters, parent.rewards, closedTile, openDistances); }
+	}
+	
+	/**
+	 * Applies the closings and then the openings to the component labels 
+	 * one tile at a time. An opened tile joins, and merges, the components 
+	 * around it. A closed tile can only split its own component, which is 
+	 * checked by a search from one neighbour that stops once it has seen 
+	 * the others.
+	 */
+	static void repairComponents(GridGraph graph, int[] labels, int[] opened, int[] closed){
+		// passability as it was before the batch, updated as each change is applied
+		boolean[] passable = new boolean[graph.size()];
+		int nextLabel = 0;
+		for(int i=0;i<passable.length;i++){ 
+			passable[i] = graph.isPassable(i); 
+			nextLabel = Math.max(nextLabel, labels[i]+1);
+		}
+		for(int i=0;i<opened.length;i++){ passable[opened[i]] = false; }
+		for(int i=0;i<closed.length;i++){ passable[closed[i]] = true; }
+		int[] queue = new int[passable.length];
+		int[] seen = new int[passable.length];
+		int stamp = 0;
+		int[] around = new int[4];
+		for(int c=0;c<closed.length;c++){
+			int tile = closed[c];
+			int label = labels[tile];
+			passable[tile] = false;
+			labels[tile] = -1;
+			int count = passableNeighbors(graph, passable, tile, around);
+			if(count<2){ continue; }
+			stamp++;
+			int found = 1;
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = around[0];
+			seen[around[0]] = stamp;
+			while(head<tail && found<count){
+				int u = queue[head++];
+				for(int dir=0;dir<4;dir++){
+					int v = graph.neighbor(u,dir);
+					if(v<0 || !passable[v] || seen[v]==stamp){ continue; }
+					seen[v] = stamp;
+					queue[tail++] = v;
+					for(int k=1;k<count;k++){
+						if(around[k]==v){ found++; }
+					}
+				}
+			}
+			for(int k=1;k<count;k++){
+				if(seen[around[k]]!=stamp && labels[around[k]]==label){ relabel(graph, labels, passable, around[k], label, nextLabel++, queue); }
+			}
+		}
+		for(int o=0;o<opened.length;o++){
+			int tile = opened[o];
+			passable[tile] = true;
+			int count = passableNeighbors(graph, passable, tile, around);
+			if(count==0){ 
+				labels[tile] = nextLabel++;
+				continue;
+			}
+			int label = labels[around[0]];
+			labels[tile] = label;
+			for(int k=1;k<count;k++){
+				if(labels[around[k]]!=label){ relabel(graph, labels, passable, around[k], labels[around[k]], label, queue); }
+			}
+		}
+	}
+	
+	static int passableNeighbors(GridGraph graph, boolean[] passable, int tile, int[] result){
+		int count = 0;
+		for(int dir=0;dir<4;dir++){
+			int v = graph.neighbor(tile,dir);
+			if(v>=0 && passable[v]){ result[count++] = v; }
+		}
+		return count;
+	}
+	
+	/** Gives every passable tile of label 'from' that is connected to 'seed' the label 'to'. */
+	static void relabel(GridGraph graph, int[] labels, boolean[] passable, int seed, int from, int to, int[] queue){
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = seed;
+		labels[seed] = to;
+		while(head<tail){
+			int u = queue[head++];
+			for(int dir=0;dir<4;dir++){
+				int v = graph.neighbor(u,dir);
+				if(v>=0 && passable[v] && labels[v]==from){
+					labels[v] = to;
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+	
+	/** 
+	 * With only tiles opened, a distance can only shrink, and any shorter 
+	 * walk goes through an opened tile. 
+	 */
+	void repairEntityDistances(int[][] openDistances){
+		Vector<Point2D> entities = new Vector<Point2D>();
+		entities.addAll(parent.exits);
+		entities.addAll(parent.monsters);
+		entities.addAll(parent.rewards);
+		entities.addAll(parent.potions);
+		for(int i=0;i<entities.size();i++){
+			int a = tileIndex(entities.get(i));
+			for(int j=i+1;j<entities.size();j++){
+				int b = tileIndex(entities.get(j));
+				double best = entityDistances[i][j];
+				for(int t=0;t<openDistances.length;t++){
+					int[] d = openDistances[t];
+					if(d[a]==GridGraph.UNREACHABLE || d[b]==GridGraph.UNREACHABLE){ continue; }
+					if(Double.isNaN(best) || d[a]+d[b]<best){ best = d[a]+d[b]; }
+				}
+				entityDistances[i][j] = best;
+				entityDistances[j][i] = best;
+			}
+		}
+	}
+	
+	/**
+	 * The path set between 'outer' and 'inner' entities, in the order 
+	 * calculateExitPaths() and its siblings produce, reusing every stored 
+	 * path that is still shortest. 
+	 */
+	Vector<CompactPath> repairPaths(Vector<CompactPath> old, Vector<Point2D> outer, Vector<Point2D> inner, 
+			boolean[] closedTile, int[][] openDistances){
+		HashMap<Long,CompactPath> byPair = new HashMap<Long,CompactPath>();
+		for(int i=0;i<old.size();i++){ byPair.put(pairKey(old.get(i).getStartTile(), old.get(i).getEndTile()), old.get(i)); }
+		Vector<CompactPath> result = new Vector<CompactPath>();
+		for(int i=0;i<outer.size();i++){
+			for(int j=(outer==inner)?i+1:0;j<inner.size();j++){
+				if(!isConnected(inner.get(j), outer.get(i))){ continue; }
+				CompactPath path = byPair.get(pairKey(tileIndex(inner.get(j)), tileIndex(outer.get(i))));
+				if(path==null || isStale(path, closedTile, openDistances)){ path = getCompactPath(inner.get(j), outer.get(i)); }
+				if(path!=null){ result.add(path); }
+			}
 		}
-		astar.radialDisconnectUnwalkables();
+		return result;
+	}
+	
+	static long pairKey(int a, int b){
+		return ((long)Math.min(a,b)<<32) | Math.max(a,b);
 	}
 	
+	static boolean isStale(CompactPath path, boolean[] closedTile, int[][] openDistances){
+		for(int i=0;i<path.size();i++){
+			if(closedTile[path.getTile(i)]){ return true; }
+		}
+		int a = path.getStartTile();
+		int b = path.getEndTile();
+		for(int t=0;t<openDistances.length;t++){
+			int[] d = openDistances[t];
+			if(d[a]!=GridGraph.UNREACHABLE && d[b]!=GridGraph.UNREACHABLE && d[a]+d[b]<path.size()-1){ return true; }
+		}
+		return false;
+	}
+	
+	/** 
+	 * Called by the parent dungeon when a single tile changes; only the 
+	 * clusters around the tile are rebuilt in the hierarchy. 
+	 */
+	public synchronized void tileChanged(int x, int y){
+		if(hierarchy!=null && hierarchySynced){ hierarchy.setPassable(x, y, parent.isPassable(x,y)); }
+	}
+	
+	/**
+	 * The cluster hierarchy used by the HPA strategy. After invalidate() it 
+	 * is compared against the dungeon and only the clusters with changed 
+	 * tiles are rebuilt.
+	 */
+	public synchronized HierarchicalGraph getHierarchy(){
+		if(hierarchy==null || hierarchy.getSizeX()!=parent.getMapSizeX() || hierarchy.getSizeY()!=parent.getMapSizeY()){
+			hierarchy = new HierarchicalGraph(parent.getPassableArray(), clusterSize);
+		} else if(!hierarchySynced){
+			hierarchy.sync(parent.getPassableArray());
+		}
+		hierarchySynced = true;
+		hierarchy.refresh();
+		return hierarchy;
+	}
+	
+	public int getClusterSize(){ return clusterSize; }
+	public synchronized void setClusterSize(int clusterSize){
+		if(clusterSize==this.clusterSize){ return; }
+		this.clusterSize = clusterSize;
+		hierarchy = null;
+		queries = null;
+	}
+	
+	public static PathDataCache getDiskCache(){ return diskCache; }
+	/** Shares derived path data between runs through the given cache, or stops if null. */
+	public static void setDiskCache(PathDataCache cache){ diskCache = cache; }
+	
+	/** 
+	 * On the first request for derived data, fills in whatever the disk 
+	 * cache holds for the current layout. Nothing is written here, so a 
+	 * connectivity check costs at most a file lookup. 
+	 */
+	synchronized void loadCached(){
+		PathDataCache cache = diskCache;
+		if(cache==null || diskChecked){ return; }
+		diskChecked = true;
+		diskBacked = true;
+		cache.load(this);
+	}
+	
+	/** 
+	 * Writes everything computed so far for this layout to the disk cache. 
+	 * Called after a path set or the distance table is computed; connectivity 
+	 * alone is cheap enough to recompute and is never the reason for a write. 
+	 */
+	synchronized void storeCached(){
+		PathDataCache cache = diskCache;
+		if(cache==null || !diskBacked){ return; }
+		try{
+			cache.save(this);
+		} catch(IOException e){
+			System.out.println("Could not write path cache: "+e.getMessage());
+		}
+	}
+	
+	/** Takes the items read from the disk cache; null items and anything already computed are left alone. */
+	synchronized void install(int[] components, double[][] entityDistances, Vector<CompactPath> exitPaths, 
+			Vector<CompactPath> exit_monsterPaths, Vector<CompactPath> monster_rewardPaths){
+		if(this.components==null){ this.components = components; }
+		if(this.entityDistances==null){ this.entityDistances = entityDistances; }
+		if(this.exitPaths==null){ this.exitPaths = exitPaths; }
+		if(this.exit_monsterPaths==null){ this.exit_monsterPaths = exit_monsterPaths; }
+		if(this.monster_rewardPaths==null){ this.monster_rewardPaths = monster_rewardPaths; }
+	}
+	
+	/** Landmark distances used by the ALT strategy. */
+	public synchronized LandmarkHeuristic getLandmarks(){
+		if(landmarks==null){ landmarks = new LandmarkHeuristic(getGraph(), landmarkCount); }
+		return landmarks;
+	}
+	
+	public int getLandmarkCount(){ return landmarkCount; }
+	/** 
+	 * Number of landmarks for ALT. Each one costs 4 bytes per tile; more 
+	 * landmarks give a tighter heuristic. 
+	 */
+	public synchronized void setLandmarkCount(int landmarkCount){
+		if(landmarkCount==this.landmarkCount){ return; }
+		this.landmarkCount = landmarkCount;
+		landmarks = null;
+		queries = null;
+	}
+	
+	/** The passability grid, built without the Pathfinder when only connectivity is needed. */
+	synchronized GridGraph getGraph(){
+		if(graph==null){ graph = new GridGraph(parent.getPassableArray()); }
+		return graph;
+	}
+	
+	/**
+	 * The query service behind getPath, getCompactPath and getDistance. It 
+	 * can be shared by many threads; each gets its own search scratch. 
+	 * Only building it takes the lock.
+	 */
+	public PathQueryService getQueries(){
+		PathQueryService result = queries;
+		return (result!=null) ? result : buildQueries();
+	}
+	
+	synchronized PathQueryService buildQueries(){
+		if(queries!=null){ return queries; }
+		PathQueryService result = new PathQueryService(getGraph());
+		if(strategy==Strategy.HPA){ result.setHierarchy(getHierarchy()); }
+		if(strategy==Strategy.ALT){ result.setLandmarks(getLandmarks()); }
+		queries = result;
+		return result;
+	}
+	
+	public synchronized void init(){
+		astar = createPathfinder();
+	}
+	
+	Pathfinder createPathfinder(){
+		return PathQueryService.createPathfinder(getGraph());
+	}
+	
+	public Strategy getStrategy(){ return strategy; }
+	public synchronized void setStrategy(Strategy strategy){ 
+		if(strategy==this.strategy){ return; }
+		this.strategy = strategy; 
+		queries = null;
+	}
+	
+	/** Nodes expanded by the calling thread's most recent getPath or getDistance call. */
+	public long getLastExpandedNodes(){ return getQueries().getLastExpandedNodes(); }
+	
+	/** Node of the shared Pathfinder returned by getAStar(). */
 	public Node findNode(int x, int y){
+		Pathfinder astar = getAStar();
 		for(Object temp : astar.nodes){
 			Node n = (Node)temp;
 			if(n.x == x && n.y == y){ return n; }
@@ -48,41 +444,325 @@ public class DungeonPaths {
 		return null;
 	}
 	
-	public void calculateAllPaths(){
-		if(astar==null){ init(); }
-		disconnectedPaths = 0;
-		exitPaths = new Vector<ArrayList>();
+	/** Eagerly computes every path set; normally they are computed on first access. */
+	public synchronized void calculateAllPaths(){
+		loadCached();
+		exitPaths = calculateExitPaths();
+		exit_monsterPaths = calculateExit_monsterPaths();
+		monster_rewardPaths = calculateMonster_rewardPaths();
+		storeCached();
+	}
+	
+	/**
+	 * Computes every path set like calculateAllPaths(), spreading the pair 
+	 * searches over the common ForkJoinPool.
+	 */
+	public void calculateAllPathsParallel(){
+		calculateAllPathsParallel(ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Computes every path set with the pair searches spread over the given 
+	 * pool. Worker threads search through the query service with their own 
+	 * scratch, and the results are stored in the same order 
+	 * calculateAllPaths() produces.
+	 */
+	public synchronized void calculateAllPathsParallel(ForkJoinPool pool){
+		loadCached();
+		PathQueryService service = getQueries();
+		Vector<Point2D> exits = parent.exits;
+		Vector<Point2D> monsters = parent.monsters;
+		Vector<Point2D> rewards = parent.rewards;
+		int exitPairs = exits.size()*(exits.size()-1)/2;
+		int exit_monsterPairs = exits.size()*monsters.size();
+		int monster_rewardPairs = monsters.size()*rewards.size();
+		// pairs are listed in the order of the serial loops, as {from, to} tiles
+		final int[] from = new int[exitPairs+exit_monsterPairs+monster_rewardPairs];
+		final int[] to = new int[from.length];
+		int pair = 0;
+		for(int i=0;i<exits.size();i++){
+			for(int j=i+1;j<exits.size();j++){
+				from[pair] = tileIndex(exits.get(j));
+				to[pair++] = tileIndex(exits.get(i));
+			}
+		}
+		for(int i=0;i<exits.size();i++){
+			for(int j=0;j<monsters.size();j++){
+				from[pair] = tileIndex(monsters.get(j));
+				to[pair++] = tileIndex(exits.get(i));
+			}
+		}
+		for(int i=0;i<monsters.size();i++){
+			for(int j=0;j<rewards.size();j++){
+				from[pair] = tileIndex(rewards.get(j));
+				to[pair++] = tileIndex(monsters.get(i));
+			}
+		}
+		CompactPath[] results = new CompactPath[from.length];
+		pool.invoke(new PairSearch(service, strategy, from, to, results, 0, from.length));
+		exitPaths = collectPaths(results, 0, exitPairs);
+		exit_monsterPaths = collectPaths(results, exitPairs, exitPairs+exit_monsterPairs);
+		monster_rewardPaths = collectPaths(results, exitPairs+exit_monsterPairs, results.length);
+		storeCached();
+	}
+	
+	int tileIndex(Point2D p){
+		return (int)(p.y)*parent.getMapSizeX()+(int)(p.x);
+	}
+	
+	static Vector<CompactPath> collectPaths(CompactPath[] results, int start, int end){
+		Vector<CompactPath> result = new Vector<CompactPath>();
+		for(int i=start;i<end;i++){
+			if(results[i]!=null){ result.add(results[i]); }
+		}
+		return result;
+	}
+	
+	/** Splits a range of pair indices until each task holds a handful of searches. */
+	static class PairSearch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		static final int THRESHOLD = 4;
+		// tasks only live inside one pool.invoke(); none of this is meant to be serialized
+		final transient PathQueryService service;
+		final transient Strategy strategy;
+		final transient int[] from, to;
+		final transient CompactPath[] results;
+		final transient int start, end;
+		
+		PairSearch(PathQueryService service, Strategy strategy, int[] from, int[] to, CompactPath[] results, int start, int end){
+			this.service = service;
+			this.strategy = strategy;
+			this.from = from;
+			this.to = to;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute(){
+			if(end-start<=THRESHOLD){
+				for(int i=start;i<end;i++){ 
+					int[] tiles = service.findPath(from[i], to[i], strategy);
+					results[i] = (tiles==null) ? null : new CompactPath(tiles, service.getGraph().getSizeX());
+				}
+				return;
+			}
+			int middle = (start+end)/2;
+			invokeAll(new PairSearch(service, strategy, from, to, results, start, middle), 
+					new PairSearch(service, strategy, from, to, results, middle, end));
+		}
+	}
+	
+	protected Vector<CompactPath> calculateExitPaths(){
+		Vector<CompactPath> result = new Vector<CompactPath>();
 		for(int i=0;i<parent.exits.size();i++){
 			for(int j=i+1;j<parent.exits.size();j++){
-				ArrayList path = this.getPath(parent.exits.get(j), parent.exits.get(i));
-				if(	path!=null ){ exitPaths.add(path); } else { disconnectedPaths++; }
+				CompactPath path = this.getCompactPath(parent.exits.get(j), parent.exits.get(i));
+				if(	path!=null ){ result.add(path); }
 			}
 		}
-		exit_monsterPaths = new Vector<ArrayList>();
+		return result;
+	}
+	
+	protected Vector<CompactPath> calculateExit_monsterPaths(){
+		Vector<CompactPath> result = new Vector<CompactPath>();
 		for(int i=0;i<parent.exits.size();i++){
 			for(int j=0;j<parent.monsters.size();j++){
-				ArrayList path = this.getPath(parent.monsters.get(j), parent.exits.get(i));
-				if(	path!=null ){ exit_monsterPaths.add(path); } else { disconnectedPaths++; }
+				CompactPath path = this.getCompactPath(parent.monsters.get(j), parent.exits.get(i));
+				if(	path!=null ){ result.add(path); }
 			}
 		}
-		monster_rewardPaths = new Vector<ArrayList>();
+		return result;
+	}
+	
+	protected Vector<CompactPath> calculateMonster_rewardPaths(){
+		Vector<CompactPath> result = new Vector<CompactPath>();
 		for(int i=0;i<parent.monsters.size();i++){
 			for(int j=0;j<parent.rewards.size();j++){
-				ArrayList path = this.getPath(parent.rewards.get(j), parent.monsters.get(i));
-				if(	path!=null ){ monster_rewardPaths.add(path); } else { disconnectedPaths++; }
+				CompactPath path = this.getCompactPath(parent.rewards.get(j), parent.monsters.get(i));
+				if(	path!=null ){ result.add(path); }
+			}
+		}
+		return result;
+	}
+	
+	public synchronized Vector<CompactPath> getMonster_rewardCompactPaths(){ 
+		loadCached();
+		if(monster_rewardPaths==null){ 
+			monster_rewardPaths = calculateMonster_rewardPaths(); 
+			storeCached();
+		}
+		return monster_rewardPaths; 
+	}
+	public synchronized Vector<CompactPath> getExit_monsterCompactPaths(){ 
+		loadCached();
+		if(exit_monsterPaths==null){ 
+			exit_monsterPaths = calculateExit_monsterPaths(); 
+			storeCached();
+		}
+		return exit_monsterPaths; 
+	}
+	public synchronized Vector<CompactPath> getExitCompactPaths(){ 
+		loadCached();
+		if(exitPaths==null){ 
+			exitPaths = calculateExitPaths(); 
+			storeCached();
+		}
+		return exitPaths; 
+	}
+	/** 
+	 * The path sets as Pathfinder node lists. They are converted once per 
+	 * path set and the same vector is returned until it changes; callers 
+	 * that only read paths should prefer the compact accessors. 
+	 */
+	public synchronized Vector<ArrayList> getMonster_rewardPaths(){ 
+		Vector<CompactPath> paths = getMonster_rewardCompactPaths();
+		if(monster_rewardNodePaths==null || monster_rewardNodePathsSource!=paths){
+			monster_rewardNodePaths = toNodePaths(paths);
+			monster_rewardNodePathsSource = paths;
+		}
+		return monster_rewardNodePaths; 
+	}
+	public synchronized Vector<ArrayList> getExit_monsterPaths(){ 
+		Vector<CompactPath> paths = getExit_monsterCompactPaths();
+		if(exit_monsterNodePaths==null || exit_monsterNodePathsSource!=paths){
+			exit_monsterNodePaths = toNodePaths(paths);
+			exit_monsterNodePathsSource = paths;
+		}
+		return exit_monsterNodePaths; 
+	}
+	public synchronized Vector<ArrayList> getExitPaths(){ 
+		Vector<CompactPath> paths = getExitCompactPaths();
+		if(exitNodePaths==null || exitNodePathsSource!=paths){
+			exitNodePaths = toNodePaths(paths);
+			exitNodePathsSource = paths;
+		}
+		return exitNodePaths; 
+	}
+	public int getMonster_rewardPathLength(){ return getMonster_rewardCompactPaths().size(); }
+	public int getExit_monsterPathLength(){ return getExit_monsterCompactPaths().size(); }
+	public int getExitPathLength(){ return getExitCompactPaths().size(); }
+	
+	/**
+	 * Number of exit-exit, exit-monster and monster-reward pairs with no path 
+	 * between them. Answered from connected components, without searching.
+	 */
+	public synchronized int getDisconnectedPaths(){ 
+		if(disconnectedPaths<0){
+			int result = 0;
+			for(int i=0;i<parent.exits.size();i++){
+				for(int j=i+1;j<parent.exits.size();j++){
+					if(!isConnected(parent.exits.get(j), parent.exits.get(i))){ result++; }
+				}
+			}
+			for(int i=0;i<parent.exits.size();i++){
+				for(int j=0;j<parent.monsters.size();j++){
+					if(!isConnected(parent.monsters.get(j), parent.exits.get(i))){ result++; }
+				}
 			}
+			for(int i=0;i<parent.monsters.size();i++){
+				for(int j=0;j<parent.rewards.size();j++){
+					if(!isConnected(parent.rewards.get(j), parent.monsters.get(i))){ result++; }
+				}
+			}
+			disconnectedPaths = result;
 		}
+		return disconnectedPaths; 
+	}
+	
+	public boolean isConnected(Point2D p1, Point2D p2){
+		return isConnected((int)(p1.x),(int)(p1.y),(int)(p2.x),(int)(p2.y));
+	}
+	public boolean isConnected(int x1,int y1,int x2,int y2){
+		GridGraph graph = getGraph();
+		if(!graph.isPassable(x1,y1) || !graph.isPassable(x2,y2)){ return false; }
+		int[] components = getComponents();
+		return components[graph.index(x1,y1)]==components[graph.index(x2,y2)];
 	}
 	
-	public Vector<ArrayList> getMonster_rewardPaths(){ return monster_rewardPaths; }
-	public Vector<ArrayList> getExit_monsterPaths(){ return exit_monsterPaths; }
-	public Vector<ArrayList> getExitPaths(){ return exitPaths; }
-	public int getMonster_rewardPathLength(){ return monster_rewardPaths.size(); }
-	public int getExit_monsterPathLength(){ return exit_monsterPaths.size(); }
-	public int getExitPathLength(){ return exitPaths.size(); }
-	public int getDisconnectedPaths(){ return disconnectedPaths; }
+	synchronized int[] getComponents(){
+		loadCached();
+		if(components==null){ components = getGraph().labelComponents(); }
+		return components;
+	}
+	
+	/**
+	 * Path lengths between every pair of entities, indexed in the order 
+	 * exits, monsters, rewards, potions; NaN where there is no path. 
+	 */
+	public double[][] getEntityDistances(){
+		return Matrix2D.copy(entityDistanceTable());
+	}
 	
-	public Pathfinder getAStar(){ return astar; }
+	synchronized double[][] entityDistanceTable(){
+		loadCached();
+		if(entityDistances==null){
+			Vector<Point2D> entities = new Vector<Point2D>();
+			entities.addAll(parent.exits);
+			entities.addAll(parent.monsters);
+			entities.addAll(parent.rewards);
+			entities.addAll(parent.potions);
+			double[][] result = new double[entities.size()][entities.size()];
+			for(int i=0;i<entities.size();i++){
+				for(int j=i+1;j<entities.size();j++){
+					result[i][j] = getDistance(entities.get(i), entities.get(j));
+					result[j][i] = result[i][j];
+				}
+			}
+			entityDistances = result;
+			storeCached();
+		}
+		return entityDistances;
+	}
+	
+	/** 
+	 * A Pathfinder over this dungeon for callers that drive the library 
+	 * directly. It is not used by the queries here and must not be shared 
+	 * between threads. 
+	 */
+	public synchronized Pathfinder getAStar(){ 
+		if(astar==null){ init(); }
+		return astar; 
+	}
+	
+	static Vector<ArrayList> toNodePaths(Vector<CompactPath> paths){
+		Vector<ArrayList> result = new Vector<ArrayList>(paths.size());
+		for(int i=0;i<paths.size();i++){ result.add(paths.get(i).toNodes()); }
+		return result;
+	}
+	
+	
+	/**
+	 * The monster-reward paths arranged as [monster][reward], null where the 
+	 * pair is not connected. Built in one pass over the path set.
+	 */
+	synchronized CompactPath[][] getMonster_rewardIndex(){
+		Vector<CompactPath> paths = getMonster_rewardCompactPaths();
+		if(monster_rewardIndex==null || monster_rewardIndexSource!=paths){
+			int sizeX = parent.getMapSizeX();
+			int[] monsterAt = new int[sizeX*parent.getMapSizeY()];
+			int[] rewardAt = new int[monsterAt.length];
+			Arrays.fill(monsterAt, -1);
+			Arrays.fill(rewardAt, -1);
+			for(int i=0;i<parent.monsters.size();i++){ monsterAt[tileIndex(parent.monsters.get(i))] = i; }
+			for(int i=0;i<parent.rewards.size();i++){ rewardAt[tileIndex(parent.rewards.get(i))] = i; }
+			CompactPath[][] result = new CompactPath[parent.monsters.size()][parent.rewards.size()];
+			for(int i=0;i<paths.size();i++){
+				CompactPath path = paths.get(i);
+				int start = path.getStartTile();
+				int end = path.getEndTile();
+				if(monsterAt[start]>=0 && rewardAt[end]>=0){ 
+					result[monsterAt[start]][rewardAt[end]] = path; 
+				} else if(monsterAt[end]>=0 && rewardAt[start]>=0){ 
+					result[monsterAt[end]][rewardAt[start]] = path; 
+				}
+			}
+			monster_rewardIndex = result;
+			monster_rewardIndexSource = paths;
+		}
+		return monster_rewardIndex;
+	}
 	
 	public Vector<ArrayList> getRewardsPathsFromMonster(int monsterIndex){
 		Vector<ArrayList> result = new Vector<ArrayList>();
@@ -90,12 +770,9 @@ public class DungeonPaths {
 			System.out.println("Base index out of bounds");
 			return result;
 		}
-		int monsterX = (int)(parent.monsters.get(monsterIndex).x);
-		int monsterY = (int)(parent.monsters.get(monsterIndex).y);
-		for(int i=0;i<monster_rewardPaths.size();i++){
-			if(PathLibrary.hasStart(monster_rewardPaths.get(i),monsterX,monsterY) || PathLibrary.hasEnd(monster_rewardPaths.get(i),monsterX,monsterY)) {
-				result.add(monster_rewardPaths.get(i));
-			}
+		CompactPath[] row = getMonster_rewardIndex()[monsterIndex];
+		for(int i=0;i<row.length;i++){
+			if(row[i]!=null){ result.add(row[i].toNodes()); }
 		}
 		return result;
 	}
@@ -106,12 +783,9 @@ public class DungeonPaths {
 			System.out.println("Resource index out of bounds");
 			return result;
 		}
-		int rewardX = (int)(parent.rewards.get(rewardIndex).x);
-		int rewardY = (int)(parent.rewards.get(rewardIndex).y);
-		for(int i=0;i<monster_rewardPaths.size();i++){
-			if(PathLibrary.hasStart(monster_rewardPaths.get(i),rewardX,rewardY) || PathLibrary.hasEnd(monster_rewardPaths.get(i),rewardX,rewardY)) {
-				result.add(monster_rewardPaths.get(i));
-			}
+		CompactPath[][] index = getMonster_rewardIndex();
+		for(int i=0;i<index.length;i++){
+			if(index[i][rewardIndex]!=null){ result.add(index[i][rewardIndex].toNodes()); }
 		}
 		return result;
 	}
@@ -125,18 +799,8 @@ public class DungeonPaths {
 			System.out.println("Reward index out of bounds");
 			return null;
 		}
-		int monsterX = (int)(parent.monsters.get(monsterIndex).x);
-		int monsterY = (int)(parent.monsters.get(monsterIndex).y);
-		int rewardX = (int)(parent.rewards.get(rewardIndex).x);
-		int rewardY = (int)(parent.rewards.get(rewardIndex).y);
-		for(int i=0;i<monster_rewardPaths.size();i++){
-			if(PathLibrary.hasStart(monster_rewardPaths.get(i),monsterX,monsterY) && PathLibrary.hasEnd(monster_rewardPaths.get(i),rewardX,rewardY)) {
-				return monster_rewardPaths.get(i);
-			} else if(PathLibrary.hasStart(monster_rewardPaths.get(i),rewardX,rewardY) && PathLibrary.hasEnd(monster_rewardPaths.get(i),monsterX,monsterY)) {
-				return monster_rewardPaths.get(i);
-			}
-		}
-		return null;
+		CompactPath path = getMonster_rewardIndex()[monsterIndex][rewardIndex];
+		return (path==null) ? null : path.toNodes();
 	}
 
 	public ArrayList getPath(Point2D p1, Point2D p2){
@@ -148,12 +812,27 @@ public class DungeonPaths {
 	public ArrayList getPath(int x1,int y1, Point2D p2){
 		return getPath(x1,y1,(int)(p2.x),(int)(p2.y));
 	}
+	public CompactPath getCompactPath(Point2D p1, Point2D p2){
+		return getCompactPath((int)(p1.x),(int)(p1.y),(int)(p2.x),(int)(p2.y));
+	}
+	public CompactPath getCompactPath(int x1,int y1,int x2,int y2){
+		PathQueryService service = getQueries();
+		GridGraph graph = service.getGraph();
+		if(!graph.isWithinBounds(x1,y1) || !graph.isWithinBounds(x2,y2)){ return null; }
+		int[] tiles = service.findPath(graph.index(x1,y1), graph.index(x2,y2), strategy);
+		if(tiles==null){ return null; }
+		return new CompactPath(tiles, graph.getSizeX());
+	}
+	
 	public ArrayList getPath(int x1,int y1,int x2,int y2){ 
-		ArrayList result = astar.aStar(findNode(x1,y1),findNode(x2,y2));
-		if(PathLibrary.hasStart(result,x2,y2) && PathLibrary.hasEnd(result,x1,y1)){ 
-			return result;
+		PathQueryService service = getQueries();
+		GridGraph graph = service.getGraph();
+		if(!graph.isWithinBounds(x1,y1) || !graph.isWithinBounds(x2,y2)){ return null; }
+		if(strategy!=Strategy.ASTAR){
+			int[] tiles = service.findPath(graph.index(x1,y1), graph.index(x2,y2), strategy);
+			return (tiles==null) ? null : new CompactPath(tiles, graph.getSizeX()).toNodes();
 		}
-		return null; 
+		return service.aStar(graph.index(x1,y1), graph.index(x2,y2));
 	}
 	
 	public double getDistance(Point2D p1, Point2D p2){
@@ -166,10 +845,9 @@ public class DungeonPaths {
 		return getDistance(x1,y1,(int)(p2.x),(int)(p2.y));
 	}
 	public double getDistance(int x1,int y1,int x2,int y2){ 
-		ArrayList result = astar.aStar(findNode(x1,y1),findNode(x2,y2));
-		if(PathLibrary.hasStart(result,x2,y2) && PathLibrary.hasEnd(result,x1,y1)){ 
-			return PathLibrary.calculateDistance(result);
-		}
-		return Double.NaN; 
+		PathQueryService service = getQueries();
+		GridGraph graph = service.getGraph();
+		if(!graph.isWithinBounds(x1,y1) || !graph.isWithinBounds(x2,y2)){ return Double.NaN; }
+		return service.getDistance(graph.index(x1,y1), graph.index(x2,y2), strategy);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+package dungeon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Vector;
+
+import libraries.CompactPath;
+import util.math2d.Point2D;
+
+/**
+ * On-disk cache of the data DungeonPaths derives from a layout: connected
+ * components, entity-to-entity distances and the three path sets. Files
+ * are named after a hash of the walls, the entity positions and the search
+ * strategy, so editing a map simply misses the old file. Each file also
+ * stores the full layout and is only used if it matches exactly. Each item
+ * is optional: a file holds what had been computed when it was written and
+ * is rewritten as more is computed. Files are memory-mapped when read and
+ * written through a temporary file that is renamed into place, so
+ * concurrent runs never see half-written data.
+ */
+public class PathDataCache {
+	public final static String DEFAULT_FOLDER = "./cache/paths/";
+	final static int MAGIC = 0x4D445043;
+	final static int VERSION = 2;
+	// written instead of a count for an item that had not been computed
+	final static int ABSENT = -1;
+
+	static PathDataCache defaultCache;
+
+	final File folder;
+	long hits;
+	long misses;
+
+	public PathDataCache(File folder){
+		this.folder = folder;
+	}
+
+	/** Shared cache in DEFAULT_FOLDER. */
+	public static synchronized PathDataCache getDefault(){
+		if(defaultCache==null){ defaultCache = new PathDataCache(new File(DEFAULT_FOLDER)); }
+		return defaultCache;
+	}
+
+	public File getFolder(){ return folder; }
+	public synchronized long getHits(){ return hits; }
+	public synchronized long getMisses(){ return misses; }
+
+	/** FNV-1a hash of everything the cached data depends on. */
+	public static long layoutHash(Dungeon dungeon, DungeonPaths.Strategy strategy){
+		long hash = 0xcbf29ce484222325L;
+		int[] layout = layout(dungeon);
+		for(int i=0;i<layout.length;i++){
+			hash = (hash ^ layout[i]) * 0x100000001b3L;
+		}
+		hash = (hash ^ strategy.ordinal()) * 0x100000001b3L;
+		return (hash ^ VERSION) * 0x100000001b3L;
+	}
+
+	/** Size, walls (one int per tile) and entity tiles of a dungeon, flattened. */
+	static int[] layout(Dungeon dungeon){
+		int sizeX = dungeon.getMapSizeX();
+		int sizeY = dungeon.getMapSizeY();
+		int entities = dungeon.exits.size()+dungeon.monsters.size()+dungeon.rewards.size()+dungeon.potions.size();
+		int[] result = new int[2+sizeX*sizeY+4+entities];
+		int pos = 0;
+		result[pos++] = sizeX;
+		result[pos++] = sizeY;
+		for(int y=0;y<sizeY;y++){
+			for(int x=0;x<sizeX;x++){
+				result[pos++] = dungeon.isPassable(x,y) ? 0 : 1;
+			}
+		}
+		pos = addTiles(result, pos, dungeon.exits, sizeX);
+		pos = addTiles(result, pos, dungeon.monsters, sizeX);
+		pos = addTiles(result, pos, dungeon.rewards, sizeX);
+		addTiles(result, pos, dungeon.potions, sizeX);
+		return result;
+	}
+
+	static int addTiles(int[] result, int pos, Vector<Point2D> points, int sizeX){
+		result[pos++] = points.size();
+		for(int i=0;i<points.size();i++){
+			result[pos++] = (int)(points.get(i).y)*sizeX+(int)(points.get(i).x);
+		}
+		return pos;
+	}
+
+	File fileFor(long hash){
+		return new File(folder, String.format("%016x.paths", hash));
+	}
+
+	/**
+	 * Fills in whichever of the paths' components, entity distances and path
+	 * sets the cache file for their dungeon's current layout holds.
+	 * @return false if there is no matching file
+	 */
+	public boolean load(DungeonPaths paths){
+		int[] layout = layout(paths.parent);
+		long hash = layoutHash(paths.parent, paths.getStrategy());
+		File file = fileFor(hash);
+		if(!file.isFile()){ return countMiss(); }
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()){
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt()!=MAGIC || buffer.getInt()!=VERSION || buffer.getLong()!=hash){ return countMiss(); }
+			if(buffer.getInt()!=layout.length){ return countMiss(); }
+			for(int i=0;i<layout.length;i++){
+				if(buffer.getInt()!=layout[i]){ return countMiss(); }
+			}
+			int sizeX = layout[0];
+			int count = buffer.getInt();
+			int[] components = (count==ABSENT) ? null : readInts(buffer, count);
+			int entities = buffer.getInt();
+			double[][] entityDistances = (entities==ABSENT) ? null : new double[entities][entities];
+			for(int i=0;i<entities;i++){
+				for(int j=0;j<entities;j++){ entityDistances[i][j] = buffer.getDouble(); }
+			}
+			Vector<CompactPath> exitPaths = readPaths(buffer, sizeX);
+			Vector<CompactPath> exit_monsterPaths = readPaths(buffer, sizeX);
+			Vector<CompactPath> monster_rewardPaths = readPaths(buffer, sizeX);
+			paths.install(components, entityDistances, exitPaths, exit_monsterPaths, monster_rewardPaths);
+		} catch(IOException | RuntimeException e){
+			// truncated or unreadable files are treated as missing and rewritten
+			return countMiss();
+		}
+		synchronized(this){ hits++; }
+		return true;
+	}
+
+	synchronized boolean countMiss(){
+		misses++;
+		return false;
+	}
+
+	static int[] readInts(MappedByteBuffer buffer, int count){
+		int[] result = new int[count];
+		buffer.asIntBuffer().get(result);
+		buffer.position(buffer.position()+4*count);
+		return result;
+	}
+
+	static Vector<CompactPath> readPaths(MappedByteBuffer buffer, int sizeX){
+		int count = buffer.getInt();
+		if(count==ABSENT){ return null; }
+		Vector<CompactPath> result = new Vector<CompactPath>(count);
+		for(int i=0;i<count;i++){
+			result.add(new CompactPath(readInts(buffer, buffer.getInt()), sizeX));
+		}
+		return result;
+	}
+
+	/** 
+	 * Writes what the paths have computed so far to the cache file for their 
+	 * layout; nothing is computed here. The caller holds the paths' lock. 
+	 */
+	public void save(DungeonPaths paths) throws IOException {
+		int[] layout = layout(paths.parent);
+		long hash = layoutHash(paths.parent, paths.getStrategy());
+		int[] components = paths.components;
+		double[][] entityDistances = paths.entityDistances;
+		folder.mkdirs();
+		File file = fileFor(hash);
+		File temp = File.createTempFile(file.getName(), ".tmp", folder);
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(hash);
+				writeInts(out, layout);
+				if(components==null){ 
+					out.writeInt(ABSENT); 
+				} else {
+					writeInts(out, components);
+				}
+				if(entityDistances==null){
+					out.writeInt(ABSENT);
+				} else {
+					out.writeInt(entityDistances.length);
+					for(int i=0;i<entityDistances.length;i++){
+						for(int j=0;j<entityDistances.length;j++){ out.writeDouble(entityDistances[i][j]); }
+					}
+				}
+				writePaths(out, paths.exitPaths);
+				writePaths(out, paths.exit_monsterPaths);
+				writePaths(out, paths.monster_rewardPaths);
+			} finally {
+				out.close();
+			}
+			try{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e){
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for(int i=0;i<values.length;i++){ out.writeInt(values[i]); }
+	}
+
+	static void writePaths(DataOutputStream out, Vector<CompactPath> paths) throws IOException {
+		if(paths==null){ 
+			out.writeInt(ABSENT); 
+			return;
+		}
+		out.writeInt(paths.size());
+		for(int i=0;i<paths.size();i++){
+			CompactPath path = paths.get(i);
+			out.writeInt(path.size());
+			for(int j=0;j<path.size();j++){ out.writeInt(path.getTile(j)); }
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package dungeon;
+
+import java.util.ArrayList;
+
+import ai.pathfinder.*;
+
+import libraries.GridGraph;
+import libraries.GridSearch;
+import libraries.HierarchicalGraph;
+import libraries.HierarchicalSearch;
+import libraries.LandmarkHeuristic;
+import libraries.PathLibrary;
+
+/**
+ * Point-to-point path queries that any number of threads can run at once
+ * against one dungeon. The grid (and the cluster hierarchy for HPA) is
+ * shared and never written by a search; everything a search mutates lives
+ * in per-thread scratch, including the Pathfinder used for A*, whose nodes
+ * carry search state. A thread keeps one scratch for all services and 
+ * rebuilds it when it queries a different grid, so scratch for a replaced 
+ * graph does not outlive the next query. Tiles are addressed as 
+ * index = y*sizeX+x.
+ * Editing the hierarchy while queries run is not supported.
+ */
+public class PathQueryService {
+	final GridGraph graph;
+	volatile HierarchicalGraph hierarchy;
+	volatile LandmarkHeuristic landmarks;
+
+	static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>(){
+		@Override
+		protected Scratch initialValue(){ return new Scratch(); }
+	};
+
+	/** Search state owned by one thread for one grid; each search kind is built on first use. */
+	static class Scratch {
+		GridGraph graph;
+		Pathfinder astar;
+		GridSearch gridSearch;
+		HierarchicalSearch hierarchySearch;
+		long expandedNodes;
+
+		void reset(GridGraph graph){
+			this.graph = graph;
+			astar = null;
+			gridSearch = null;
+			hierarchySearch = null;
+			expandedNodes = 0;
+		}
+		Pathfinder getAStar(){
+			if(astar==null){ astar = createPathfinder(graph); }
+			return astar;
+		}
+		GridSearch getGridSearch(){
+			if(gridSearch==null){ gridSearch = new GridSearch(graph); }
+			return gridSearch;
+		}
+		HierarchicalSearch getHierarchySearch(HierarchicalGraph hierarchy){
+			if(hierarchySearch==null || hierarchySearch.getGraph()!=hierarchy){ hierarchySearch = new HierarchicalSearch(hierarchy); }
+			return hierarchySearch;
+		}
+	}
+
+	public PathQueryService(GridGraph graph){
+		this.graph = graph;
+	}
+
+	public GridGraph getGraph(){ return graph; }
+
+	public HierarchicalGraph getHierarchy(){ return hierarchy; }
+	public void setHierarchy(HierarchicalGraph hierarchy){ this.hierarchy = hierarchy; }
+	public LandmarkHeuristic getLandmarks(){ return landmarks; }
+	public void setLandmarks(LandmarkHeuristic landmarks){ this.landmarks = landmarks; }
+
+	/** Nodes expanded by the calling thread's most recent query. */
+	public long getLastExpandedNodes(){ return scratch().expandedNodes; }
+
+	/** The calling thread's scratch, rebuilt if it last searched another grid. */
+	Scratch scratch(){
+		Scratch local = SCRATCH.get();
+		if(local.graph!=graph){ local.reset(graph); }
+		return local;
+	}
+
+	/**
+	 * A* with the calling thread's own Pathfinder.
+	 * @return the Pathfinder's node path from 'to' back to 'from', or null if there is none
+	 */
+	public ArrayList aStar(int from, int to){
+		if(from<0 || from>=graph.size() || to<0 || to>=graph.size()){ return null; }
+		Scratch local = scratch();
+		Pathfinder pf = local.getAStar();
+		// the cuboid nodes are laid out in the same order as the tile indices
+		ArrayList result = pf.aStar((Node)(pf.nodes.get(from)),(Node)(pf.nodes.get(to)));
+		local.expandedNodes = pf.closed.size();
+		if(PathLibrary.hasStart(result,graph.getX(to),graph.getY(to)) && PathLibrary.hasEnd(result,graph.getX(from),graph.getY(from))){
+			return result;
+		}
+		return null;
+	}
+
+	/** @return the tiles from 'to' back to 'from', or null if they are not connected */
+	public int[] findPath(int from, int to, DungeonPaths.Strategy strategy){
+		if(from<0 || from>=graph.size() || to<0 || to>=graph.size()){ return null; }
+		Scratch local = scratch();
+		if(strategy==DungeonPaths.Strategy.JPS){
+			GridSearch search = local.getGridSearch();
+			int[] result = search.jumpPointSearch(from, to);
+			local.expandedNodes = search.getExpandedNodes();
+			return result;
+		}
+		if(strategy==DungeonPaths.Strategy.ALT){
+			GridSearch search = local.getGridSearch();
+			int[] result = search.aStar(from, to, landmarks);
+			local.expandedNodes = search.getExpandedNodes();
+			return result;
+		}
+		if(strategy==DungeonPaths.Strategy.HPA){
+			HierarchicalSearch search = local.getHierarchySearch(hierarchy);
+			int[] result = search.findPath(from, to);
+			local.expandedNodes = search.getExpandedNodes();
+			return result;
+		}
+		ArrayList path = aStar(from, to);
+		if(path==null){ return null; }
+		int[] result = new int[path.size()];
+		for(int i=0;i<result.length;i++){
+			Node n = (Node)(path.get(i));
+			result[i] = graph.index((int)(n.x), (int)(n.y));
+		}
+		return result;
+	}
+
+	/** Path length between two tiles, NaN if they are not connected. */
+	public double getDistance(int from, int to, DungeonPaths.Strategy strategy){
+		if(strategy==DungeonPaths.Strategy.ASTAR){
+			ArrayList path = aStar(from, to);
+			return (path==null) ? Double.NaN : PathLibrary.calculateDistance(path);
+		}
+		int[] tiles = findPath(from, to, strategy);
+		return (tiles==null) ? Double.NaN : tiles.length-1;
+	}
+
+	/** A 4-connected Pathfinder over the passable tiles of a grid. */
+	public static Pathfinder createPathfinder(GridGraph graph){
+		Pathfinder result = new Pathfinder();
+		int spacing = 1;
+		result.corners=false;
+		result.setCuboidNodes(graph.getSizeX(), graph.getSizeY(), spacing);
+		for(Object temp : result.nodes){
+			Node n = (Node)temp;
+			n.walkable = graph.isPassable((int)(n.x), (int)(n.y));
+		}
+		result.radialDisconnectUnwalkables();
+		return result;
+	}
+}
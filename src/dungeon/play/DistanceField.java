@@ -0,0 +1,132 @@
+package dungeon.play;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import dungeon.Dungeon;
+
+/**
+ * Walking distance from every tile to the nearest of a set of source tiles
+ * (e.g. all living treasures), built with a multi-source BFS over passable
+ * tiles. Removing a source only repairs the tiles that were closest to it:
+ * every other tile keeps its nearest source, so its distance cannot change.
+ */
+public class DistanceField {
+	public final static int UNREACHABLE = Integer.MAX_VALUE;
+
+	int sizeX, sizeY;
+	boolean[] passable;
+	int[] distance;
+	int[] nearest;
+	int[] queue;
+
+	public DistanceField(Dungeon map){
+		this.sizeX = map.getMapSizeX();
+		this.sizeY = map.getMapSizeY();
+		int tiles = sizeX*sizeY;
+		passable = new boolean[tiles];
+		for(int i=0;i<tiles;i++){ passable[i] = map.isPassable(i%sizeX, i/sizeX); }
+		distance = new int[tiles];
+		nearest = new int[tiles];
+		queue = new int[tiles];
+	}
+
+	/** Recomputes the whole field from the given source tiles (index = y*sizeX+x). */
+	public void rebuild(int[] sources, int count){
+		Arrays.fill(distance, UNREACHABLE);
+		Arrays.fill(nearest, -1);
+		int head = 0;
+		int tail = 0;
+		for(int i=0;i<count;i++){
+			int s = sources[i];
+			if(!passable[s] || distance[s]==0){ continue; }
+			distance[s] = 0;
+			nearest[s] = s;
+			queue[tail++] = s;
+		}
+		while(head<tail){
+			int u = queue[head++];
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u,dir);
+				if(v>=0 && passable[v] && distance[v]==UNREACHABLE){
+					distance[v] = distance[u]+1;
+					nearest[v] = nearest[u];
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a source and repairs the distances of the tiles it was
+	 * nearest to, growing them back in from the surrounding tiles.
+	 */
+	public void removeSource(int x, int y){
+		int source = y*sizeX+x;
+		if(nearest[source]!=source){ return; }
+		// the tiles owned by a source form a connected BFS region around it
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		nearest[source] = -1;
+		while(head<tail){
+			int u = queue[head++];
+			distance[u] = UNREACHABLE;
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u,dir);
+				if(v>=0 && nearest[v]==source){
+					nearest[v] = -1;
+					queue[tail++] = v;
+				}
+			}
+		}
+		PriorityQueue<Long> open = new PriorityQueue<Long>();
+		for(int i=0;i<tail;i++){
+			int u = queue[i];
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u,dir);
+				if(v>=0 && nearest[v]>=0 && distance[v]+1<distance[u]){
+					distance[u] = distance[v]+1;
+					nearest[u] = nearest[v];
+				}
+			}
+			if(nearest[u]>=0){ open.add(((long)distance[u]<<32) | u); }
+		}
+		while(!open.isEmpty()){
+			long entry = open.poll();
+			int u = (int)entry;
+			if((int)(entry>>>32)!=distance[u]){ continue; }
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u,dir);
+				if(v>=0 && passable[v] && distance[u]+1<distance[v]){
+					distance[v] = distance[u]+1;
+					nearest[v] = nearest[u];
+					open.add(((long)distance[v]<<32) | v);
+				}
+			}
+		}
+	}
+
+	/** Steps from (x,y) to the nearest source, or UNREACHABLE. */
+	public int getDistance(int x, int y){
+		if(x<0 || x>=sizeX || y<0 || y>=sizeY){ return UNREACHABLE; }
+		return distance[y*sizeX+x];
+	}
+
+	/** Tile index (y*sizeX+x) of the source nearest to (x,y), or -1. */
+	public int getNearest(int x, int y){
+		if(x<0 || x>=sizeX || y<0 || y>=sizeY){ return -1; }
+		return nearest[y*sizeX+x];
+	}
+
+	int neighbor(int tile, int dir){
+		int x = tile%sizeX;
+		int y = tile/sizeX;
+		if(dir==PlayMap.UP){ y--; }
+		if(dir==PlayMap.RIGHT){ x++; }
+		if(dir==PlayMap.DOWN){ y++; }
+		if(dir==PlayMap.LEFT){ x--; }
+		if(x<0 || x>=sizeX || y<0 || y>=sizeY){ return -1; }
+		return y*sizeX+x;
+	}
+}
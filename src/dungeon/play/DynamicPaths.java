@@ -0,0 +1,389 @@
+package dungeon.play;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import util.math2d.Point2D;
+
+/**
+ * Incremental weighted planner (D* Lite) over a PlayMap. Tile costs come
+ * from the live entities and the hero's hitpoints: monsters cost more the
+ * larger their damage is relative to the hero's HP (and are impassable if
+ * they would kill the hero), while treasures and potions are cheaper to walk
+ * through. The search runs backwards from the goal, so when the hero moves,
+ * kills a monster or drinks a potion only the vertices around the changed
+ * tiles are repaired by the next call to update().
+ */
+public class DynamicPaths {
+	static final double INF = Double.POSITIVE_INFINITY;
+
+	PlayMap map;
+	int sizeX, sizeY;
+
+	double monsterWeight = 4.0;
+	double rewardWeight = 0.5;
+	double potionWeight = 0.5;
+	double minCost = 0.1;
+
+	// entity lookups per tile, -1 when the tile holds no such entity
+	int[] monsterAt;
+	int[] rewardAt;
+	int[] potionAt;
+	boolean[] monsterAlive;
+	boolean[] rewardAlive;
+	boolean[] potionAlive;
+	int lastHP;
+
+	double[] cost;
+	double[] g;
+	double[] rhs;
+
+	// indexed binary heap over tile indices
+	int[] heap;
+	int[] heapPos;
+	double[] key1;
+	double[] key2;
+	int heapSize;
+
+	int goal = -1;
+	int start;
+	int last;
+	double km;
+	long expandedNodes;
+
+	public DynamicPaths(PlayMap map){
+		this.map = map;
+		this.sizeX = map.getMapSizeX();
+		this.sizeY = map.getMapSizeY();
+		int tiles = sizeX*sizeY;
+		monsterAt = new int[tiles];
+		rewardAt = new int[tiles];
+		potionAt = new int[tiles];
+		cost = new double[tiles];
+		g = new double[tiles];
+		rhs = new double[tiles];
+		heap = new int[tiles];
+		heapPos = new int[tiles];
+		key1 = new double[tiles];
+		key2 = new double[tiles];
+	}
+
+	public void setWeights(double monsterWeight, double rewardWeight, double potionWeight){
+		this.monsterWeight = monsterWeight;
+		this.rewardWeight = rewardWeight;
+		this.potionWeight = potionWeight;
+		if(goal>=0){ reset(); }
+	}
+
+	public void setGoal(Point2D p){ setGoal((int)(p.x),(int)(p.y)); }
+	public void setGoal(int x, int y){
+		goal = index(x,y);
+		reset();
+	}
+
+	/**
+	 * Rebuilds the entity snapshot and the search from scratch. Needed after
+	 * the goal changes or a new game is started on the map.
+	 */
+	public void reset(){
+		int tiles = sizeX*sizeY;
+		Arrays.fill(monsterAt, -1);
+		Arrays.fill(rewardAt, -1);
+		Arrays.fill(potionAt, -1);
+		Vector<Monster> monsters = map.getMonsterChars();
+		Vector<Reward> rewards = map.getRewardChars();
+		Vector<Powerup> potions = map.getPotionChars();
+		monsterAlive = new boolean[monsters.size()];
+		rewardAlive = new boolean[rewards.size()];
+		potionAlive = new boolean[potions.size()];
+		for(int i=0;i<monsters.size();i++){
+			monsterAt[index(monsters.get(i).getX(),monsters.get(i).getY())] = i;
+			monsterAlive[i] = monsters.get(i).isAlive();
+		}
+		for(int i=0;i<rewards.size();i++){
+			rewardAt[index(rewards.get(i).getX(),rewards.get(i).getY())] = i;
+			rewardAlive[i] = rewards.get(i).isAlive();
+		}
+		for(int i=0;i<potions.size();i++){
+			potionAt[index(potions.get(i).getX(),potions.get(i).getY())] = i;
+			potionAlive[i] = potions.get(i).isAlive();
+		}
+		lastHP = map.getHero().getHitpoints();
+		for(int i=0;i<tiles;i++){ cost[i] = tileCost(i); }
+
+		Arrays.fill(g, INF);
+		Arrays.fill(rhs, INF);
+		Arrays.fill(heapPos, -1);
+		heapSize = 0;
+		km = 0;
+		expandedNodes = 0;
+		start = index(map.getHero().getX(),map.getHero().getY());
+		last = start;
+		if(goal<0){ return; }
+		rhs[goal] = 0;
+		push(goal, heuristic(start,goal), 0);
+		computeShortestPath();
+	}
+
+	/**
+	 * Picks up the hero's movement, HP changes and consumed entities since
+	 * the previous call, repairs the affected vertices and replans.
+	 */
+	public void update(){
+		if(goal<0){ return; }
+		int current = index(map.getHero().getX(),map.getHero().getY());
+		if(current!=start){
+			start = current;
+			km += heuristic(last,start);
+			last = start;
+		}
+		Vector<Monster> monsters = map.getMonsterChars();
+		Vector<Reward> rewards = map.getRewardChars();
+		Vector<Powerup> potions = map.getPotionChars();
+		for(int i=0;i<monsterAlive.length;i++){
+			if(monsterAlive[i]!=monsters.get(i).isAlive()){
+				monsterAlive[i] = monsters.get(i).isAlive();
+				updateCost(index(monsters.get(i).getX(),monsters.get(i).getY()));
+			}
+		}
+		for(int i=0;i<rewardAlive.length;i++){
+			if(rewardAlive[i]!=rewards.get(i).isAlive()){
+				rewardAlive[i] = rewards.get(i).isAlive();
+				updateCost(index(rewards.get(i).getX(),rewards.get(i).getY()));
+			}
+		}
+		for(int i=0;i<potionAlive.length;i++){
+			if(potionAlive[i]!=potions.get(i).isAlive()){
+				potionAlive[i] = potions.get(i).isAlive();
+				updateCost(index(potions.get(i).getX(),potions.get(i).getY()));
+			}
+		}
+		int hp = map.getHero().getHitpoints();
+		if(hp!=lastHP){
+			lastHP = hp;
+			// only monster and potion costs depend on the hero's HP
+			for(int i=0;i<monsterAlive.length;i++){
+				if(monsterAlive[i]){ updateCost(index(monsters.get(i).getX(),monsters.get(i).getY())); }
+			}
+			for(int i=0;i<potionAlive.length;i++){
+				if(potionAlive[i]){ updateCost(index(potions.get(i).getX(),potions.get(i).getY())); }
+			}
+		}
+		computeShortestPath();
+	}
+
+	/** Cost-to-goal from the hero's current tile, or infinity if unreachable. */
+	public double getCost(){ return (goal<0) ? INF : g[start]; }
+	public double getCost(int x, int y){ return (goal<0) ? INF : g[index(x,y)]; }
+	public long getExpandedNodes(){ return expandedNodes; }
+
+	/** The best move for the hero, or PlayMap.IDLE when the goal is unreachable. */
+	public int getNextAction(){
+		if(goal<0 || start==goal){ return PlayMap.IDLE; }
+		int bestAction = PlayMap.IDLE;
+		double bestCost = INF;
+		for(int dir=0;dir<4;dir++){
+			int next = neighbor(start,dir);
+			if(next<0){ continue; }
+			double value = cost[next]+g[next];
+			if(value<bestCost){
+				bestCost = value;
+				bestAction = dir;
+			}
+		}
+		return bestAction;
+	}
+
+	/** The currently planned route from the hero to the goal, both included. */
+	public Vector<Point2D> getPath(){
+		Vector<Point2D> result = new Vector<Point2D>();
+		if(goal<0 || g[start]==INF){ return result; }
+		int curr = start;
+		result.add(new Point2D(curr%sizeX, curr/sizeX));
+		while(curr!=goal && result.size()<=sizeX*sizeY){
+			int best = -1;
+			double bestCost = INF;
+			for(int dir=0;dir<4;dir++){
+				int next = neighbor(curr,dir);
+				if(next>=0 && cost[next]+g[next]<bestCost){
+					bestCost = cost[next]+g[next];
+					best = next;
+				}
+			}
+			if(best<0){ break; }
+			curr = best;
+			result.add(new Point2D(curr%sizeX, curr/sizeX));
+		}
+		return result;
+	}
+
+	// ----------------------------------------------------------------
+	// COSTS
+	// ----------------------------------------------------------------
+
+	protected double tileCost(int tile){
+		int x = tile%sizeX;
+		int y = tile/sizeX;
+		if(!map.isPassable(x,y)){ return INF; }
+		// reaching any exit other than the goal ends the game early
+		if(tile!=goal && map.isExit(x,y)){ return INF; }
+		Hero hero = map.getHero();
+		int hp = Math.max(1, hero.getHitpoints());
+		int m = monsterAt[tile];
+		if(m>=0 && map.getMonsterChar(m).isAlive()){
+			int damage = map.getMonsterChar(m).getDamage();
+			if(damage>=hero.getHitpoints()){ return INF; }
+			return 1.0 + monsterWeight*damage/hp;
+		}
+		int r = rewardAt[tile];
+		if(r>=0 && map.getRewardChar(r).isAlive()){
+			return Math.max(minCost, 1.0-rewardWeight);
+		}
+		int p = potionAt[tile];
+		if(p>=0 && map.getPotionChar(p).isAlive()){
+			double missing = Math.max(0, hero.getStartingHitpoints()-hero.getHitpoints());
+			double healed = Math.min(missing, map.getPotionChar(p).getHealing());
+			return Math.max(minCost, 1.0-potionWeight*healed/hero.getStartingHitpoints());
+		}
+		return 1.0;
+	}
+
+	void updateCost(int tile){
+		double value = tileCost(tile);
+		if(value==cost[tile]){ return; }
+		cost[tile] = value;
+		// entering 'tile' is the edge that changed, so its neighbours are affected
+		for(int dir=0;dir<4;dir++){
+			int prev = neighbor(tile,dir);
+			if(prev>=0){ updateVertex(prev); }
+		}
+	}
+
+	// ----------------------------------------------------------------
+	// D* LITE
+	// ----------------------------------------------------------------
+
+	void updateVertex(int u){
+		if(u!=goal){
+			double best = INF;
+			for(int dir=0;dir<4;dir++){
+				int next = neighbor(u,dir);
+				if(next>=0){ best = Math.min(best, cost[next]+g[next]); }
+			}
+			rhs[u] = best;
+		}
+		if(heapPos[u]>=0){ remove(u); }
+		if(g[u]!=rhs[u]){
+			double k2 = Math.min(g[u],rhs[u]);
+			push(u, k2+heuristic(start,u)+km, k2);
+		}
+	}
+
+	void computeShortestPath(){
+		while(heapSize>0){
+			int u = heap[0];
+			double k2Start = Math.min(g[start],rhs[start]);
+			double k1Start = k2Start+km;
+			if(!less(key1[u],key2[u],k1Start,k2Start) && rhs[start]==g[start]){ break; }
+			double oldK1 = key1[u];
+			double oldK2 = key2[u];
+			double newK2 = Math.min(g[u],rhs[u]);
+			double newK1 = newK2+heuristic(start,u)+km;
+			expandedNodes++;
+			if(less(oldK1,oldK2,newK1,newK2)){
+				remove(u);
+				push(u,newK1,newK2);
+			} else if(g[u]>rhs[u]){
+				g[u] = rhs[u];
+				remove(u);
+				for(int dir=0;dir<4;dir++){
+					int prev = neighbor(u,dir);
+					if(prev>=0){ updateVertex(prev); }
+				}
+			} else {
+				g[u] = INF;
+				updateVertex(u);
+				for(int dir=0;dir<4;dir++){
+					int prev = neighbor(u,dir);
+					if(prev>=0){ updateVertex(prev); }
+				}
+			}
+		}
+	}
+
+	double heuristic(int a, int b){
+		return minCost*(Math.abs(a%sizeX-b%sizeX)+Math.abs(a/sizeX-b/sizeX));
+	}
+
+	int index(int x, int y){ return y*sizeX+x; }
+
+	int neighbor(int tile, int dir){
+		int x = tile%sizeX;
+		int y = tile/sizeX;
+		if(dir==PlayMap.UP){ y--; }
+		if(dir==PlayMap.RIGHT){ x++; }
+		if(dir==PlayMap.DOWN){ y++; }
+		if(dir==PlayMap.LEFT){ x--; }
+		if(x<0 || x>=sizeX || y<0 || y>=sizeY){ return -1; }
+		return y*sizeX+x;
+	}
+
+	static boolean less(double a1, double a2, double b1, double b2){
+		return a1<b1 || (a1==b1 && a2<b2);
+	}
+
+	// ----------------------------------------------------------------
+	// PRIORITY QUEUE
+	// ----------------------------------------------------------------
+
+	void push(int u, double k1, double k2){
+		key1[u] = k1;
+		key2[u] = k2;
+		heap[heapSize] = u;
+		heapPos[u] = heapSize;
+		heapSize++;
+		siftUp(heapPos[u]);
+	}
+
+	void remove(int u){
+		int pos = heapPos[u];
+		heapSize--;
+		heapPos[u] = -1;
+		if(pos==heapSize){ return; }
+		int moved = heap[heapSize];
+		heap[pos] = moved;
+		heapPos[moved] = pos;
+		siftUp(pos);
+		siftDown(heapPos[moved]);
+	}
+
+	void siftUp(int pos){
+		int u = heap[pos];
+		while(pos>0){
+			int parent = (pos-1)/2;
+			int p = heap[parent];
+			if(!less(key1[u],key2[u],key1[p],key2[p])){ break; }
+			heap[pos] = p;
+			heapPos[p] = pos;
+			pos = parent;
+		}
+		heap[pos] = u;
+		heapPos[u] = pos;
+	}
+
+	void siftDown(int pos){
+		int u = heap[pos];
+		while(true){
+			int child = 2*pos+1;
+			if(child>=heapSize){ break; }
+			if(child+1<heapSize && less(key1[heap[child+1]],key2[heap[child+1]],key1[heap[child]],key2[heap[child]])){ child++; }
+			int c = heap[child];
+			if(!less(key1[c],key2[c],key1[u],key2[u])){ break; }
+			heap[pos] = c;
+			heapPos[c] = pos;
+			pos = child;
+		}
+		heap[pos] = u;
+		heapPos[u] = pos;
+	}
+}
@@ -56,6 +56,11 @@ public class PlayMap extends Dungeon implements Cloneable {
 	boolean gameHalted;
 
     Dungeon baseMap;
+	
+	// nearest-entity distances, built on first query and repaired as entities are consumed
+	DistanceField treasureDistances;
+	DistanceField potionDistances;
+	DistanceField monsterDistances;
 
 	static int startingHP = 40;
 	static int combatRange = 10;
@@ -277,6 +282,7 @@ public class PlayMap extends Dungeon implements Cloneable {
     }
 	
 	public void resetLevel(){
+		clearDistanceFields();
 		this.setMonsterChars(new Vector<Monster>());
 		for(int i=0;i<super.getMonsterLength();i++){ 
 			this.getMonsterChars().add(new Monster(super.getMonster(i), "monster",combatBaseline, combatRange));
@@ -292,6 +298,7 @@ public class PlayMap extends Dungeon implements Cloneable {
 	}
 	
 	public void resetLevelStatic(){
+		clearDistanceFields();
 		this.setMonsterChars(new Vector<Monster>());
 		for(int i=0;i<super.getMonsterLength();i++){ 
 			this.getMonsterChars().add(new Monster(super.getMonster(i), "monster",combatBaseline, 0));
@@ -327,12 +334,15 @@ public class PlayMap extends Dungeon implements Cloneable {
 			int mIndex = this.getMonsterIndex(cHeroX, cHeroY);
 			if(mIndex!=-1){ 
 				String event = monsterChars.get(mIndex).eventCollision(hero);
+				if(monsterDistances!=null){ monsterDistances.removeSource(cHeroX, cHeroY); }
 				logEvent(event);
 			} else if(rIndex!=-1){ 
 				String event = rewardChars.get(rIndex).eventCollision(hero);
+				if(treasureDistances!=null){ treasureDistances.removeSource(cHeroX, cHeroY); }
 				logEvent(event);
 			} else if(pIndex!=-1){ 
 				String event = potionChars.get(pIndex).eventCollision(hero);
+				if(potionDistances!=null){ potionDistances.removeSource(cHeroX, cHeroY); }
 				logEvent(event);
 			} else if(this.isExit(cHeroX,cHeroY) && !entrance.isAt(cHeroX,cHeroY)){ 
 				hero.setPosition(cHeroX,cHeroY);
@@ -602,15 +612,81 @@ public class PlayMap extends Dungeon implements Cloneable {
 	}
 
     public Vector<Reward> getRewardChars() { return rewardChars; }
-    public void setRewardChars(Vector<Reward> rewardChars) { this.rewardChars = rewardChars; }
+    public void setRewardChars(Vector<Reward> rewardChars) { 
+		this.rewardChars = rewardChars; 
+		treasureDistances = null;
+	}
     public Reward getRewardChar(int index) { return this.rewardChars.get(index); }
     public Vector<Powerup> getPotionChars() { return potionChars; }
-    public void setPotionChars(Vector<Powerup> potionChars) { this.potionChars = potionChars; }
+    public void setPotionChars(Vector<Powerup> potionChars) { 
+		this.potionChars = potionChars; 
+		potionDistances = null;
+	}
     public Powerup getPotionChar(int index) { return this.potionChars.get(index); }
     public Vector<Monster> getMonsterChars() { return monsterChars; }
-    public void setMonsterChars(Vector<Monster> monsterChars) { this.monsterChars = monsterChars; }
+    public void setMonsterChars(Vector<Monster> monsterChars) { 
+		this.monsterChars = monsterChars; 
+		monsterDistances = null;
+	}
 	public Monster getMonsterChar(int index) { return this.monsterChars.get(index); }
 	
+	// ----------------------------------------------------------------
+	// NEAREST ENTITY DISTANCES
+	// ----------------------------------------------------------------
+	
+	protected void clearDistanceFields(){
+		treasureDistances = null;
+		potionDistances = null;
+		monsterDistances = null;
+	}
+	
+	public DistanceField getTreasureDistances(){
+		if(treasureDistances==null){ treasureDistances = buildDistanceField(getRewardChars()); }
+		return treasureDistances;
+	}
+	public DistanceField getPotionDistances(){
+		if(potionDistances==null){ potionDistances = buildDistanceField(getPotionChars()); }
+		return potionDistances;
+	}
+	public DistanceField getMonsterDistances(){
+		if(monsterDistances==null){ monsterDistances = buildDistanceField(getMonsterChars()); }
+		return monsterDistances;
+	}
+	
+	/**
+	 * Steps from (x,y) to the nearest living entity of the given type 
+	 * (TREASURE, POTION or MONSTER), or DistanceField.UNREACHABLE.
+	 */
+	public int getNearestDistance(int type, int x, int y){
+		if(type==TREASURE){ return getTreasureDistances().getDistance(x,y); }
+		if(type==POTION){ return getPotionDistances().getDistance(x,y); }
+		if(type==MONSTER){ return getMonsterDistances().getDistance(x,y); }
+		return DistanceField.UNREACHABLE;
+	}
+	
+	/**
+	 * Fewest steps from the hero to an exit without dying, counting monster 
+	 * damage and potion healing along the way; null if every route is fatal.
+	 */
+	public SurvivalRouter.Route findSurvivalRoute(){
+		return findSurvivalRoute(1);
+	}
+	/** As findSurvivalRoute(), keeping at least 'minHP' hitpoints at every step. */
+	public SurvivalRouter.Route findSurvivalRoute(int minHP){
+		return new SurvivalRouter(this).findRoute(minHP);
+	}
+	
+	protected DistanceField buildDistanceField(Vector<? extends GameCharacter> chars){
+		DistanceField result = new DistanceField(this);
+		int[] sources = new int[chars.size()];
+		int count = 0;
+		for(int i=0;i<chars.size();i++){
+			if(chars.get(i).isAlive()){ sources[count++] = chars.get(i).getY()*getMapSizeX()+chars.get(i).getX(); }
+		}
+		result.rebuild(sources, count);
+		return result;
+	}
+	
 	public void incVisited(int x, int y){ visited[x][y]++; }
 	public void setVisited(int x, int y, int value){ visited[x][y] = value; }
 	
@@ -29,8 +29,8 @@ public class Powerup extends Reward {
         return clone;
     }
 	
-	int getHealing(){ return healing; }
-	boolean isOverheal(){ return overheal; }
+	public int getHealing(){ return healing; }
+	public boolean isOverheal(){ return overheal; }
 	
 	@Override
 	public String eventCollision(GameCharacter collider){
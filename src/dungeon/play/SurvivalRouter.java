@@ -0,0 +1,190 @@
+package dungeon.play;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Resource-constrained shortest path from the hero to an exit: the fewest
+ * steps such that the hero's HP never drops below a minimum, where walking
+ * onto a living monster costs its damage and onto a potion heals. Labels
+ * are (tile, HP, monsters killed, potions drunk) and are settled in step
+ * order, so the first label to reach an exit is optimal. A label is
+ * dropped when another label on its tile has no more steps, at least as
+ * much HP, killed every monster it killed and drank no potion it did not.
+ * At most 64 living monsters and potions are tracked.
+ */
+public class SurvivalRouter {
+	public final static int MAX_ENTITIES = 64;
+	public final static int DEFAULT_MAX_LABELS = 2000000;
+
+	PlayMap map;
+	int maxLabels = DEFAULT_MAX_LABELS;
+	long createdLabels;
+
+	// label arena
+	int[] labelTile;
+	int[] labelHP;
+	long[] labelKilled;
+	long[] labelDrunk;
+	int[] labelParent;
+	int labelCount;
+
+	/** A route from the hero's tile to an exit. */
+	public static class Route {
+		final int[] tiles;
+		final int hitpoints;
+		final int sizeX;
+
+		Route(int[] tiles, int hitpoints, int sizeX){
+			this.tiles = tiles;
+			this.hitpoints = hitpoints;
+			this.sizeX = sizeX;
+		}
+
+		public int getSteps(){ return tiles.length-1; }
+		/** HP left on arrival at the exit. */
+		public int getRemainingHP(){ return hitpoints; }
+		/** Tile indices (y*sizeX+x), starting on the hero's tile. */
+		public int[] getTiles(){ return Arrays.copyOf(tiles, tiles.length); }
+		public int getX(int step){ return tiles[step]%sizeX; }
+		public int getY(int step){ return tiles[step]/sizeX; }
+	}
+
+	public SurvivalRouter(PlayMap map){
+		this.map = map;
+	}
+
+	/** Upper bound on labels per query; queries that need more give up and return null. */
+	public void setMaxLabels(int maxLabels){ this.maxLabels = maxLabels; }
+	public long getCreatedLabels(){ return createdLabels; }
+
+	/**
+	 * Shortest route from the hero's current tile and HP to an exit that
+	 * keeps HP at or above 'minHP' (at least 1) after every step.
+	 * @return the route, or null if there is none
+	 */
+	public Route findRoute(int minHP){
+		int sizeX = map.getMapSizeX();
+		int tiles = sizeX*map.getMapSizeY();
+		// entity slot per tile for living monsters and potions, -1 elsewhere
+		int[] slot = new int[tiles];
+		Arrays.fill(slot, -1);
+		int[] effect = new int[MAX_ENTITIES];
+		boolean[] isMonster = new boolean[MAX_ENTITIES];
+		boolean[] overheal = new boolean[MAX_ENTITIES];
+		int entities = 0;
+		Vector<Monster> monsters = map.getMonsterChars();
+		for(int i=0;i<monsters.size();i++){
+			if(!monsters.get(i).isAlive()){ continue; }
+			if(entities==MAX_ENTITIES){ return tooManyEntities(); }
+			slot[monsters.get(i).getY()*sizeX+monsters.get(i).getX()] = entities;
+			effect[entities] = monsters.get(i).getDamage();
+			isMonster[entities++] = true;
+		}
+		Vector<Powerup> potions = map.getPotionChars();
+		for(int i=0;i<potions.size();i++){
+			if(!potions.get(i).isAlive()){ continue; }
+			if(entities==MAX_ENTITIES){ return tooManyEntities(); }
+			slot[potions.get(i).getY()*sizeX+potions.get(i).getX()] = entities;
+			effect[entities] = potions.get(i).getHealing();
+			overheal[entities] = potions.get(i).isOverheal();
+			isMonster[entities++] = false;
+		}
+		minHP = Math.max(1, minHP);
+		Hero hero = map.getHero();
+		int maxHP = hero.getStartingHitpoints();
+
+		// labels settled per tile, as indices into the arena
+		int[][] settled = new int[tiles][];
+		int[] settledCount = new int[tiles];
+		if(hero.getHitpoints()<minHP){ return null; }
+		labelCount = 0;
+		createdLabels = 0;
+		keep(settled, settledCount, addLabel(hero.getY()*sizeX+hero.getX(), hero.getHitpoints(), 0L, 0L, -1));
+		// labels are appended in step order, so the arena doubles as the FIFO queue
+		for(int head=0;head<labelCount;head++){
+			int u = labelTile[head];
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u, dir, sizeX);
+				if(v<0){ continue; }
+				int hp = labelHP[head];
+				long killed = labelKilled[head];
+				long drunk = labelDrunk[head];
+				int s = slot[v];
+				if(s>=0){
+					long bit = 1L<<s;
+					if(isMonster[s] && (killed & bit)==0){
+						hp -= effect[s];
+						killed |= bit;
+					} else if(!isMonster[s] && (drunk & bit)==0){
+						hp += overheal[s] ? effect[s] : Math.min(effect[s], Math.max(0, maxHP-hp));
+						drunk |= bit;
+					}
+				}
+				if(hp<minHP || isDominated(settled[v], settledCount[v], hp, killed, drunk)){ continue; }
+				if(labelCount>=maxLabels){ return null; }
+				int label = addLabel(v, hp, killed, drunk, head);
+				if(map.isExit(v%sizeX, v/sizeX)){ return buildRoute(label, sizeX); }
+				keep(settled, settledCount, label);
+			}
+		}
+		return null;
+	}
+
+	Route tooManyEntities(){
+		System.out.println("Survival routing tracks at most "+MAX_ENTITIES+" monsters and potions");
+		return null;
+	}
+
+	boolean isDominated(int[] labels, int count, int hp, long killed, long drunk){
+		for(int i=0;i<count;i++){
+			int other = labels[i];
+			if(labelHP[other]>=hp && (labelKilled[other] & killed)==killed && (labelDrunk[other] & ~drunk)==0){ return true; }
+		}
+		return false;
+	}
+
+	void keep(int[][] settled, int[] settledCount, int label){
+		int tile = labelTile[label];
+		if(settled[tile]==null){ settled[tile] = new int[4]; }
+		if(settledCount[tile]==settled[tile].length){ settled[tile] = Arrays.copyOf(settled[tile], settled[tile].length*2); }
+		settled[tile][settledCount[tile]++] = label;
+	}
+
+	int addLabel(int tile, int hp, long killed, long drunk, int parent){
+		if(labelTile==null || labelCount==labelTile.length){
+			int capacity = (labelTile==null) ? 1024 : labelTile.length*2;
+			labelTile = (labelTile==null) ? new int[capacity] : Arrays.copyOf(labelTile, capacity);
+			labelHP = (labelHP==null) ? new int[capacity] : Arrays.copyOf(labelHP, capacity);
+			labelKilled = (labelKilled==null) ? new long[capacity] : Arrays.copyOf(labelKilled, capacity);
+			labelDrunk = (labelDrunk==null) ? new long[capacity] : Arrays.copyOf(labelDrunk, capacity);
+			labelParent = (labelParent==null) ? new int[capacity] : Arrays.copyOf(labelParent, capacity);
+		}
+		labelTile[labelCount] = tile;
+		labelHP[labelCount] = hp;
+		labelKilled[labelCount] = killed;
+		labelDrunk[labelCount] = drunk;
+		labelParent[labelCount] = parent;
+		createdLabels++;
+		return labelCount++;
+	}
+
+	Route buildRoute(int label, int sizeX){
+		int length = 0;
+		for(int l=label;l>=0;l=labelParent[l]){ length++; }
+		int[] tiles = new int[length];
+		for(int l=label;l>=0;l=labelParent[l]){ tiles[--length] = labelTile[l]; }
+		return new Route(tiles, labelHP[label], sizeX);
+	}
+
+	int neighbor(int tile, int dir, int sizeX){
+		int x = tile%sizeX;
+		int y = tile/sizeX;
+		if(dir==PlayMap.UP){ y--; }
+		if(dir==PlayMap.RIGHT){ x++; }
+		if(dir==PlayMap.DOWN){ y++; }
+		if(dir==PlayMap.LEFT){ x--; }
+		if(!map.isValidMove(x,y)){ return -1; }
+		return y*sizeX+x;
+	}
+}
@@ -10,6 +10,8 @@ import controllers.*;
 
 import dungeon.Dungeon;
 import dungeon.DungeonLoader;
+import dungeon.DungeonPaths;
+import dungeon.PathDataCache;
 import dungeon.play.GameCharacter;
 import dungeon.play.PlayMap;
 
@@ -29,6 +31,8 @@ public class CompetitionMode {
 		"controllers.ZombieController",
 		"controllers.RoombaController",
 		"controllers.PathfindingController",
+		"controllers.HeldKarpController",
+		"controllers.SurvivalController",
 	};
 
 	double[][] hpRemaining;
@@ -54,6 +58,7 @@ public class CompetitionMode {
 		} catch(Exception e){
 			System.out.println(e.toString());
 		}
+		DungeonPaths.setDiskCache(PathDataCache.getDefault());
 		Dungeon testDungeon = DungeonLoader.loadAsciiDungeon(asciiMap);
 		PlayMap testPlay = new PlayMap(testDungeon);
 		for(int r=0;r<totalRuns;r++){
@@ -0,0 +1,122 @@
+package experiment;
+
+/**
+ * Decide cuándo un entrenamiento ha dejado de aprender. Por episodio anota
+ * el |ΔQ| medio de sus pasos, la fracción de pasos en que cambió la acción
+ * voraz del estado actualizado y el retorno. Cada 'window' episodios compara
+ * la ventana con sus umbrales: el mayor |ΔQ| medio de sus episodios, la tasa
+ * media de cambios de política y cuánto se ha movido el retorno medio
+ * respecto a la primera ventana de la racha estable (no a la anterior, para
+ * no dar por estable un retorno que sube poco a poco). Se usa la media por episodio porque con
+ * alpha constante y monstruos aleatorios siempre hay algún paso con un
+ * |ΔQ| grande. Se para cuando las tres señales cumplen durante
+ * 'stableWindows' ventanas seguidas, o al agotar el tiempo máximo (si lo hay).
+ */
+public class ConvergenceMonitor {
+
+    private final int window;
+    private final double maxDeltaQ;
+    private final double maxPolicyChange;
+    private final double returnTolerance;
+    private final int stableWindows;
+    private final int minEpisodes;
+    private final long budgetMillis;
+    private final long start;
+
+    // Acumulado del episodio en curso (suma de |ΔQ|)
+    private double episodeDeltaQ;
+    private int episodeSteps, episodeChanges;
+
+    // Acumulado de la ventana en curso
+    private double windowDeltaQ;
+    private double windowChangeRate;
+    private double windowReturn;
+    private int windowEpisodes;
+
+    private double lastWindowDeltaQ = Double.NaN, lastChangeRate = Double.NaN, lastMeanReturn = Double.NaN;
+    private double referenceReturn = Double.NaN;
+    private int stable;
+    private int episodes;
+    private String reason;
+
+    /**
+     * @param window episodios por ventana
+     * @param maxDeltaQ mayor |ΔQ| medio por episodio admitido en la ventana
+     * @param maxPolicyChange tasa media admitida de cambios de la acción voraz
+     * @param returnTolerance cambio relativo admitido del retorno medio dentro de la racha
+     * @param stableWindows ventanas seguidas que deben cumplir los tres umbrales
+     * @param minEpisodes episodios antes de los cuales nunca se para
+     * @param budgetMillis tiempo máximo del trabajo, 0 sin límite
+     */
+    public ConvergenceMonitor(int window, double maxDeltaQ, double maxPolicyChange, double returnTolerance,
+            int stableWindows, int minEpisodes, long budgetMillis) {
+        this.window = window;
+        this.maxDeltaQ = maxDeltaQ;
+        this.maxPolicyChange = maxPolicyChange;
+        this.returnTolerance = returnTolerance;
+        this.stableWindows = stableWindows;
+        this.minEpisodes = minEpisodes;
+        this.budgetMillis = budgetMillis;
+        this.start = System.currentTimeMillis();
+    }
+
+    /** Un paso de aprendizaje: |ΔQ| aplicado y si cambió la acción voraz de ese estado. */
+    public void recordStep(double deltaQ, boolean policyChanged) {
+        episodeDeltaQ += deltaQ;
+        episodeSteps++;
+        if (policyChanged) episodeChanges++;
+    }
+
+    /** Cierra el episodio con su retorno (suma de recompensas). */
+    public void endEpisode(double episodeReturn) {
+        episodes++;
+        if (episodeSteps > 0) windowDeltaQ = Math.max(windowDeltaQ, episodeDeltaQ / episodeSteps);
+        windowChangeRate += (episodeSteps == 0) ? 0 : (double) episodeChanges / episodeSteps;
+        windowReturn += episodeReturn;
+        windowEpisodes++;
+        episodeDeltaQ = 0;
+        episodeSteps = 0;
+        episodeChanges = 0;
+        if (windowEpisodes == window) closeWindow();
+    }
+
+    private void closeWindow() {
+        lastWindowDeltaQ = windowDeltaQ;
+        lastChangeRate = windowChangeRate / windowEpisodes;
+        lastMeanReturn = windowReturn / windowEpisodes;
+        boolean returnStable = !Double.isNaN(referenceReturn)
+                && Math.abs(lastMeanReturn - referenceReturn) <= returnTolerance * Math.max(1.0, Math.abs(referenceReturn));
+        if (lastWindowDeltaQ <= maxDeltaQ && lastChangeRate <= maxPolicyChange && returnStable) {
+            stable++;
+        } else {
+            // la racha vuelve a empezar con esta ventana como referencia
+            stable = 0;
+            referenceReturn = lastMeanReturn;
+        }
+        windowDeltaQ = 0;
+        windowChangeRate = 0;
+        windowReturn = 0;
+        windowEpisodes = 0;
+    }
+
+    /** Cierto si el entrenamiento puede terminar; getReason() dice por qué. */
+    public boolean shouldStop() {
+        if (budgetMillis > 0 && System.currentTimeMillis() - start >= budgetMillis) {
+            reason = "time budget of " + budgetMillis / 1000 + "s used after " + episodes + " episodes";
+            return true;
+        }
+        if (episodes >= minEpisodes && stable >= stableWindows) {
+            reason = "converged after " + episodes + " episodes (" + getSummary() + ")";
+            return true;
+        }
+        return false;
+    }
+
+    public String getReason() { return reason; }
+    public int getEpisodes() { return episodes; }
+
+    /** Señales de la última ventana cerrada. */
+    public String getSummary() {
+        return String.format("max mean |dQ| %.4f, policy changes %.4f, mean return %.3f", lastWindowDeltaQ, lastChangeRate, lastMeanReturn);
+    }
+}
@@ -10,6 +10,8 @@ import controllers.*;
 
 import dungeon.Dungeon;
 import dungeon.DungeonLoader;
+import dungeon.DungeonPaths;
+import dungeon.PathDataCache;
 import dungeon.play.PlayMap;
 import dungeon.visualization.PlayVisualizer;
 
@@ -29,6 +31,7 @@ public class DebugMode {
 		} catch(Exception e){
 			System.out.println(e.toString());
 		}
+		DungeonPaths.setDiskCache(PathDataCache.getDefault());
 		Dungeon testDungeon = DungeonLoader.loadAsciiDungeon(asciiMap);
 		PlayMap testPlay = new PlayMap(testDungeon);
 		testPlay.startGame();
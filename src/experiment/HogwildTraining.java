@@ -0,0 +1,253 @@
+package experiment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import dungeon.Dungeon;
+import dungeon.DungeonLoader;
+import dungeon.DungeonPaths;
+import dungeon.PathDataCache;
+import dungeon.play.PlayMap;
+import util.math2d.Matrix2D;
+import controllers.ConcurrentQTable;
+import controllers.IncrementalCheckpoint;
+import controllers.PolicyFile;
+import controllers.QLearningController;
+import controllers.QLearningController.Persona;
+
+/**
+ * Entrena un solo mapa y una persona con varios hilos al estilo Hogwild:
+ * cada hilo juega sus propios episodios en su PlayMap, con su controlador,
+ * y todos actualizan la misma ConcurrentQTable sin bloquear estados.
+ * Los episodios se reparten con un contador compartido y epsilon sigue
+ * QTraining.epsilonAt hasta TOTAL_EPISODES. Cada paso aplica la regla de
+ * QLearningController.updateQTable. A diferencia de QTraining no hay
+ * replay, trazas ni parada temprana, así que ni con un hilo dan lo mismo.
+ *
+ * Para comparar con el entrenamiento en serie, evaluate() juega partidas
+ * con la política voraz (epsilon 0) y da el retorno medio y cuántas veces
+ * se llega a la salida.
+ */
+public class HogwildTraining {
+
+    final int TOTAL_EPISODES;
+    final int MAX_STEPS_PER_GAME = 200;
+    final int CHECKPOINT_EVERY = 15000;
+    final String OUTPUT_FOLDER = "./trained_agents/";
+
+    public HogwildTraining(int totalEpisodes) {
+        this.TOTAL_EPISODES = totalEpisodes;
+    }
+
+    /**
+     * Entrena con 'threads' hilos y guarda la política igual que
+     * QTraining.trainAgent (mismos nombres de fichero y checkpoint).
+     * Si algún hilo falla, los demás paran, no se guarda la política y el
+     * checkpoint se conserva.
+     * @return la tabla compartida, o null si ya estaba entrenado o ha fallado
+     */
+    public ConcurrentQTable train(Dungeon baseDungeon, Persona persona, String mapName, int threads) {
+        String saveName = persona.name() + "_" + mapName.replace(".txt", "") + ".ser";
+        File finalFile = new File(OUTPUT_FOLDER + saveName);
+        if (finalFile.exists()) {
+            System.out.println("   [SKIP] Training already completed for: " + saveName);
+            return null;
+        }
+        File folder = new File(OUTPUT_FOLDER);
+        if (!folder.exists()) folder.mkdirs();
+
+        // El primer controlador carga el checkpoint y guarda la política; los demás sólo juegan
+        PlayMap firstMap = new PlayMap(baseDungeon);
+        firstMap.startGame();
+        QLearningController owner = new QLearningController(firstMap, firstMap.getHero(), persona);
+        owner.setPackedStates(true);
+        String ckptName = OUTPUT_FOLDER + "ckpt_" + persona.name() + "_" + mapName.replace(".txt", "") + ".ser";
+        File ckptFile = new File(ckptName);
+        int startEpisode = ckptFile.exists() ? IncrementalCheckpoint.restore(owner, ckptName) : 0;
+        final ConcurrentQTable shared = ConcurrentQTable.copyOf(owner.packedQTable);
+        owner.setPackedQTable(shared);
+
+        final AtomicInteger nextEpisode = new AtomicInteger(startEpisode);
+        final AtomicBoolean failed = new AtomicBoolean();
+        // Como en IncrementalCheckpoint, el hilo que llega al checkpoint sólo copia la tabla y otro la escribe
+        final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "hogwild-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicInteger lastCheckpoint = new AtomicInteger(startEpisode);
+        final AtomicInteger workerId = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> new Thread(r, "hogwild-" + workerId.getAndIncrement()));
+        List<Future<?>> workers = new ArrayList<>();
+        for (int w = 0; w < threads; w++) {
+            final PlayMap map = (w == 0) ? firstMap : new PlayMap(baseDungeon);
+            final QLearningController agent;
+            if (w == 0) {
+                agent = owner;
+            } else {
+                map.startGame();
+                agent = new QLearningController(map, map.getHero(), persona);
+                agent.setPackedQTable(shared);
+            }
+            workers.add(pool.submit(() -> {
+                try {
+                    int i;
+                    while (!failed.get() && (i = nextEpisode.getAndIncrement()) < TOTAL_EPISODES) {
+                        // sin parada temprana, epsilon llega al mínimo al final del entrenamiento
+                        agent.setEpsilon(QTraining.epsilonAt(i, TOTAL_EPISODES));
+                        playEpisode(map, agent);
+                        if (i % CHECKPOINT_EVERY == 0 && i > 0) {
+                            final PolicyFile checkpoint = owner.toPolicyFile(i, shared.snapshot());
+                            writer.submit(() -> writeCheckpoint(checkpoint, ckptName, saveName, lastCheckpoint));
+                        }
+                    }
+                } catch (RuntimeException | Error e) {
+                    // los demás paran en su próximo episodio
+                    failed.set(true);
+                    throw e;
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                System.err.println("   " + saveName + ": worker failed");
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                // el checkpoint permite retomar
+                failed.set(true);
+                writer.shutdown();
+                Thread.currentThread().interrupt();
+                return shared;
+            }
+        }
+        // lo pendiente se escribe antes de guardar la política y borrar el checkpoint, o de dejarlo para retomar
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return shared;
+        }
+        if (failed.get()) {
+            // la tabla no ha visto todos los episodios: se conserva el checkpoint para retomar
+            System.err.println("   " + saveName + ": Training aborted, policy not saved. Checkpoint kept.");
+            return null;
+        }
+
+        owner.savePolicy(OUTPUT_FOLDER + saveName);
+        if (ckptFile.exists()) {
+            IncrementalCheckpoint.delete(ckptName);
+            System.out.println("   " + saveName + ": Training complete. Checkpoint removed.");
+        }
+        return shared;
+    }
+
+    // Escribe un checkpoint salvo que ya haya uno posterior: los hilos pueden copiar la tabla en otro orden
+    private void writeCheckpoint(PolicyFile checkpoint, String ckptName, String saveName, AtomicInteger lastCheckpoint) {
+        if (checkpoint.getEpisode() <= lastCheckpoint.get()) return;
+        try {
+            checkpoint.write(Paths.get(ckptName));
+            lastCheckpoint.set(checkpoint.getEpisode());
+            System.out.println("   " + saveName + ": Saved Checkpoint at " + checkpoint.getEpisode() + "/" + TOTAL_EPISODES + " | QTable: " + checkpoint.getTable().size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Una partida aprendiendo en cada paso, como el bucle de QTraining.trainAgent sin replay ni trazas; devuelve el retorno
+    private double playEpisode(PlayMap map, QLearningController agent) {
+        map.startGame();
+        agent.updateHero(map.getHero());
+        int prevMonsters = Matrix2D.count(map.getDeadMonsterArray());
+        int prevTreasures = Matrix2D.count(map.getDeadRewardArray());
+        double total = 0;
+        for (int steps = 0; steps < MAX_STEPS_PER_GAME && !map.isGameHalted(); steps++) {
+            long state = agent.getPackedState();
+            int action = agent.getNextAction();
+            map.updateGame(action);
+
+            boolean isDead = !map.getHero().isAlive();
+            boolean isExit = map.isGameHalted() && !isDead;
+            int currMonsters = Matrix2D.count(map.getDeadMonsterArray());
+            int currTreasures = Matrix2D.count(map.getDeadRewardArray());
+            double reward = agent.getReward(true, currMonsters > prevMonsters, isDead, isExit, currTreasures > prevTreasures);
+            agent.updateQTable(state, action, reward, agent.getPackedState(), map.isGameHalted(), 1.0);
+            total += reward;
+            prevMonsters = currMonsters;
+            prevTreasures = currTreasures;
+        }
+        return total;
+    }
+
+    /**
+     * Juega 'games' partidas con la política voraz de 'table' sin aprender.
+     * @return {retorno medio, fracción de partidas que llegan a la salida}
+     */
+    public double[] evaluate(Dungeon baseDungeon, Persona persona, ConcurrentQTable table, int games) {
+        PlayMap map = new PlayMap(baseDungeon);
+        map.startGame();
+        QLearningController agent = new QLearningController(map, map.getHero(), persona);
+        agent.setPackedQTable(table.snapshot());
+        agent.setEpsilon(0.0);
+        double total = 0;
+        int exits = 0;
+        for (int g = 0; g < games; g++) {
+            map.startGame();
+            agent.updateHero(map.getHero());
+            int prevMonsters = Matrix2D.count(map.getDeadMonsterArray());
+            int prevTreasures = Matrix2D.count(map.getDeadRewardArray());
+            for (int steps = 0; steps < MAX_STEPS_PER_GAME && !map.isGameHalted(); steps++) {
+                map.updateGame(agent.getNextAction());
+                boolean isDead = !map.getHero().isAlive();
+                int currMonsters = Matrix2D.count(map.getDeadMonsterArray());
+                int currTreasures = Matrix2D.count(map.getDeadRewardArray());
+                total += agent.getReward(true, currMonsters > prevMonsters, isDead, map.isGameHalted() && !isDead, currTreasures > prevTreasures);
+                prevMonsters = currMonsters;
+                prevTreasures = currTreasures;
+            }
+            if (map.isGameHalted() && map.getHero().isAlive()) exits++;
+        }
+        return new double[]{ total / games, (double) exits / games };
+    }
+
+    // Uso: HogwildTraining <mapa> <persona> [hilos] [episodios]
+    public static void main(String[] args) {
+        String mapName = (args.length > 0) ? args[0] : "map0.txt";
+        Persona persona = (args.length > 1) ? Persona.valueOf(args[1]) : Persona.TRYHARD;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int episodes = (args.length > 3) ? Integer.parseInt(args[3]) : 150000;
+
+        String asciiMap;
+        try {
+            asciiMap = new Scanner(new File("./dungeons/" + mapName)).useDelimiter("\\A").next();
+        } catch (Exception e) {
+            System.err.println("Error loading map: " + mapName);
+            e.printStackTrace();
+            return;
+        }
+        DungeonPaths.setDiskCache(PathDataCache.getDefault());
+        Dungeon dungeon = DungeonLoader.loadAsciiDungeon(asciiMap);
+
+        HogwildTraining trainer = new HogwildTraining(episodes);
+        long start = System.currentTimeMillis();
+        ConcurrentQTable table = trainer.train(dungeon, persona, mapName, threads);
+        if (table == null) return;
+        double[] result = trainer.evaluate(dungeon, persona, table, 200);
+        System.out.println(persona.name() + " on " + mapName + " with " + threads + " threads: " + episodes + " episodes in "
+                + (System.currentTimeMillis() - start) / 1000 + "s, " + table.size() + " states, greedy return "
+                + String.format("%.3f", result[0]) + ", exits " + String.format("%.0f%%", result[1] * 100));
+    }
+}
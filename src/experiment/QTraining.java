@@ -1,18 +1,67 @@
 package experiment;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import dungeon.Dungeon;
 import dungeon.DungeonLoader;
+import dungeon.DungeonPaths;
+import dungeon.PathDataCache;
 import dungeon.play.PlayMap;
 import util.math2d.Matrix2D;
+import controllers.EligibilityTraces;
+import controllers.IncrementalCheckpoint;
 import controllers.QLearningController;
 import controllers.QLearningController.Persona;
+import controllers.ReplayBuffer;
 
 public class QTraining {
 
-    final int TOTAL_EPISODES = 150000; 
+    final int TOTAL_EPISODES; 
     final int MAX_STEPS_PER_GAME = 200;
+    // Claves long (héroe, HP y entidades vivas) en vez de la cadena de todo el mapa
+    final boolean PACKED_STATES = true;
+    // Experience replay (sólo con claves empaquetadas): cada paso se guarda y
+    // se repiten REPLAY_BATCH transiciones de la memoria; 0 lo desactiva. Desactivado
+    // por defecto: en map0 con 4 bajaba las salidas de la política voraz del 86% al 63%
+    final int REPLAY_BATCH = 0;
+    final int REPLAY_CAPACITY = 50000;
+    final boolean PRIORITIZED_REPLAY = true;
+    // Trazas de elegibilidad (sólo con claves empaquetadas); lambda 0 deja la regla de un paso
+    final double TRACE_LAMBDA = 0.8;
+    final EligibilityTraces.Mode TRACE_MODE = EligibilityTraces.Mode.WATKINS_Q;
+    final int MAX_TRACES = 64;
+    final double TRACE_CUTOFF = 0.01;
+    // Parada temprana (sólo con claves empaquetadas): ver ConvergenceMonitor. Con
+    // alpha constante las señales no llegan a cero; los umbrales están justo por
+    // encima de su ruido una vez estabilizado el retorno, medidos sólo en map0.
+    // Desactivada por defecto: las señales salen de partidas con exploración y no
+    // dicen si la política voraz ha convergido (en map0 aún oscilaba entre el 17%
+    // y el 99% de salidas al parar). Sin ella epsilon baja hasta TOTAL_EPISODES
+    final boolean EARLY_STOPPING = false;
+    final int CONVERGENCE_WINDOW = 1000;
+    final double MAX_DELTA_Q = 0.08;
+    final double MAX_POLICY_CHANGE = 0.035;
+    final double RETURN_TOLERANCE = 0.02;
+    final int STABLE_WINDOWS = 5;
+    // Con parada temprana epsilon llega a su mínimo en este episodio y no antes
+    // de TOTAL_EPISODES; no se para hasta entonces
+    final int EPSILON_DECAY_EPISODES = 40000;
+    // Tiempo máximo por trabajo en segundos, 0 sin límite
+    final long MAX_SECONDS_PER_JOB = 0;
+    // Con claves de texto cada checkpoint guarda la tabla entera y bloquea el
+    // entrenamiento mientras escribe
+    final int CHECKPOINT_EVERY = 15000;
+    // Con claves empaquetadas los checkpoints son incrementales y se escriben en
+    // segundo plano (IncrementalCheckpoint), así que pueden ser más frecuentes
+    final int INCREMENTAL_CHECKPOINT_EVERY = 5000;
+    final int MAX_CHECKPOINT_DELTAS = 8;
     
     // Configuración de mapas
     final int START_MAP_ID = 0;
@@ -20,9 +69,18 @@ public class QTraining {
     final String MAP_FOLDER = "./dungeons/";
     final String OUTPUT_FOLDER = "./trained_agents/";
 
+    public QTraining() {
+        this(150000);
+    }
+
+    public QTraining(int totalEpisodes) {
+        this.TOTAL_EPISODES = totalEpisodes;
+    }
+
     public void trainAllMapsAndPersonas(Persona p) {
         File folder = new File(OUTPUT_FOLDER);
         if (!folder.exists()) folder.mkdirs();
+        DungeonPaths.setDiskCache(PathDataCache.getDefault());
 
         // Bucle externo: Iterar por cada mapa disponible
         for (int mapId = START_MAP_ID; mapId <= END_MAP_ID; mapId++) {
@@ -56,6 +114,61 @@ public class QTraining {
         }
     }
 
+    /**
+     * Entrena todas las combinaciones mapa × persona a la vez, con 'threads'
+     * hilos. Cada trabajo carga su propio Dungeon y tiene su PlayMap y su
+     * controlador, así que no comparten estado; los ya terminados se saltan
+     * y los interrumpidos siguen desde su checkpoint, igual que en serie.
+     */
+    public void trainAllParallel(Persona[] personas, int threads) {
+        File folder = new File(OUTPUT_FOLDER);
+        if (!folder.exists()) folder.mkdirs();
+        DungeonPaths.setDiskCache(PathDataCache.getDefault());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> jobs = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        final int total = (END_MAP_ID - START_MAP_ID + 1) * personas.length;
+        final AtomicInteger finished = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+        for (int mapId = START_MAP_ID; mapId <= END_MAP_ID; mapId++) {
+            for (Persona persona : personas) {
+                final String mapFileName = "map" + mapId + ".txt";
+                final Persona p = persona;
+                names.add(p.name() + " on " + mapFileName);
+                jobs.add(pool.submit(() -> {
+                    Dungeon dungeon = loadDungeon(MAP_FOLDER + mapFileName);
+                    if (dungeon != null) trainAgent(dungeon, p, mapFileName);
+                    System.out.println("[" + finished.incrementAndGet() + "/" + total + "] " + p.name() + " on " + mapFileName
+                            + " done after " + (System.currentTimeMillis() - start) / 1000 + "s");
+                }));
+            }
+        }
+        pool.shutdown();
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                jobs.get(i).get();
+            } catch (ExecutionException e) {
+                System.err.println("Training failed for " + names.get(i));
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Dungeon loadDungeon(String fullPath) {
+        try { 
+            return DungeonLoader.loadAsciiDungeon(new Scanner(new File(fullPath)).useDelimiter("\\A").next()); 
+        } catch(Exception e){ 
+            System.err.println("Error loading map: " + fullPath);
+            e.printStackTrace(); 
+            return null;
+        }
+    }
+
     private void trainAgent(Dungeon baseDungeon, Persona persona, String mapName) {
         
         // --- VERIFICAR SI YA TERMINÓ ---
@@ -71,6 +184,7 @@ public class QTraining {
         map.startGame(); 
         
         QLearningController agent = new QLearningController(map, map.getHero(), persona);
+        agent.setPackedStates(PACKED_STATES);
 
         // Definir nombre del Checkpoint (ej: ckpt_TREASURE_COLLECTOR_map0.ser)
         // Se guarda en la misma carpeta OUTPUT_FOLDER
@@ -81,8 +195,17 @@ public class QTraining {
         // Verificar si existe checkpoint y cargar
         int startEpisode = 0;
         if (ckptFile.exists()) {
-            startEpisode = agent.loadCheckpoint(ckptName);
+            startEpisode = agent.isPackedStates() ? IncrementalCheckpoint.restore(agent, ckptName) : agent.loadCheckpoint(ckptName);
         }
+        IncrementalCheckpoint checkpoints = agent.isPackedStates() ? new IncrementalCheckpoint(agent, ckptName, MAX_CHECKPOINT_DELTAS) : null;
+
+        ReplayBuffer replay = (agent.isPackedStates() && REPLAY_BATCH > 0) ? new ReplayBuffer(REPLAY_CAPACITY, PRIORITIZED_REPLAY) : null;
+        EligibilityTraces traces = (agent.isPackedStates() && TRACE_LAMBDA > 0)
+                ? new EligibilityTraces(TRACE_MODE, TRACE_LAMBDA, MAX_TRACES, TRACE_CUTOFF) : null;
+        int decayEpisodes = (agent.isPackedStates() && EARLY_STOPPING) ? Math.min(TOTAL_EPISODES, EPSILON_DECAY_EPISODES) : TOTAL_EPISODES;
+        ConvergenceMonitor monitor = (agent.isPackedStates() && EARLY_STOPPING)
+                ? new ConvergenceMonitor(CONVERGENCE_WINDOW, MAX_DELTA_Q, MAX_POLICY_CHANGE, RETURN_TOLERANCE,
+                        STABLE_WINDOWS, Math.max(0, decayEpisodes - startEpisode), MAX_SECONDS_PER_JOB * 1000) : null;
 
         // El bucle empieza donde nos quedamos (startEpisode) en lugar de 0
         for (int i = startEpisode; i < TOTAL_EPISODES; i++) {
@@ -90,23 +213,23 @@ public class QTraining {
             agent.updateHero(map.getHero()); 
             
             // Recálculo de Epsilon (funciona bien al resumir porque depende de 'i')
-            double epsilon = 1.0;
-            if (i > 2500) {
-                 double progress = (double)(i - 2500) / (TOTAL_EPISODES - 2500);
-                 epsilon = 1.0 - (progress * 0.9); 
-                 if (epsilon < 0.1) epsilon = 0.1;
-            }
-            agent.setEpsilon(epsilon);
+            agent.setEpsilon(epsilonAt(i, decayEpisodes));
 
             int steps = 0;
             boolean done = false;
+            if (traces != null) traces.reset();
+            // Con trazas la acción de s' se elige antes de actualizar y se juega en el paso siguiente
+            int nextAction = -1;
+            double episodeReturn = 0;
 
             int prevMonsters = Matrix2D.count(map.getDeadMonsterArray());
             int prevTreasures = Matrix2D.count(map.getDeadRewardArray());
             
             while (!done && steps < MAX_STEPS_PER_GAME) {
-                String state = agent.getStateRepresentation();
-                int action = agent.getNextAction();
+                long state = agent.isPackedStates() ? agent.getPackedState() : 0;
+                String legacyState = agent.isPackedStates() ? null : agent.getStateRepresentation();
+                int action = (nextAction >= 0) ? nextAction : agent.getNextAction();
+                nextAction = -1;
                 
                 map.updateGame(action);
                 
@@ -120,37 +243,87 @@ public class QTraining {
                 boolean moved = true;
 
                 double reward = agent.getReward(moved, killed, isDead, isExit, collected);
-                String nextState = agent.getStateRepresentation();
-                
-                agent.updateQTable(state, action, reward, nextState);
+                if (agent.isPackedStates()) {
+                    long nextState = agent.getPackedState();
+                    int greedyBefore = (monitor != null) ? agent.getGreedyAction(state) : -1;
+                    double error;
+                    if (traces != null) {
+                        if (!map.isGameHalted()) nextAction = agent.getNextAction();
+                        error = traces.update(agent, state, action, reward, nextState, Math.max(nextAction, 0), map.isGameHalted());
+                    } else {
+                        error = agent.updateQTable(state, action, reward, nextState, map.isGameHalted(), 1.0);
+                    }
+                    if (monitor != null) {
+                        monitor.recordStep(agent.getAlpha() * Math.abs(error), greedyBefore >= 0 && agent.getGreedyAction(state) != greedyBefore);
+                    }
+                    if (replay != null) {
+                        replay.add(state, action, reward, nextState, map.isGameHalted());
+                        replay.replay(agent, REPLAY_BATCH);
+                    }
+                } else {
+                    agent.updateQTable(legacyState, action, reward, agent.getStateRepresentation());
+                }
                 
                 prevMonsters = currMonsters;
                 prevTreasures = currTreasures;
+                episodeReturn += reward;
                 steps++;
                 
                 if (map.isGameHalted()) done = true;
             }
             
             // GUARDADO DE CHECKPOINT
-            // Guardamos cada 10,000 episodios para no escribir en disco constantemente
-            if (i % 15000 == 0 && i > 0) {
-                agent.saveCheckpoint(ckptName, i);
-                System.out.println("   Saved Checkpoint at " + i + "/" + TOTAL_EPISODES + " | QTable: " + agent.qTable.size());
+            // Cada CHECKPOINT_EVERY episodios para no escribir en disco constantemente
+            if (i % ((checkpoints != null) ? INCREMENTAL_CHECKPOINT_EVERY : CHECKPOINT_EVERY) == 0 && i > 0) {
+                if (checkpoints != null) checkpoints.checkpoint(i);
+                else agent.saveCheckpoint(ckptName, i);
+                System.out.println("   " + saveName + ": Saved Checkpoint at " + i + "/" + TOTAL_EPISODES + " | QTable: " + agent.getQTableSize());
+            }
+
+            if (monitor != null) {
+                monitor.endEpisode(episodeReturn);
+                if (monitor.shouldStop()) {
+                    System.out.println("   " + saveName + ": Stopping early, " + monitor.getReason());
+                    break;
+                }
             }
         }
 
+        // Esperar a que terminen de escribirse los checkpoints pendientes
+        if (checkpoints != null) checkpoints.close();
+
         // Guardado Final (El archivo definitivo)
         agent.savePolicy(OUTPUT_FOLDER + saveName);
         
-        // Borrar el checkpoint porque ya terminamos exitosamente
+        // Borrar el checkpoint (y sus deltas) porque ya terminamos exitosamente
         if(ckptFile.exists()) {
-            ckptFile.delete();
-            System.out.println("   Training complete. Checkpoint removed.");
+            IncrementalCheckpoint.delete(ckptName);
+            System.out.println("   " + saveName + ": Training complete. Checkpoint removed.");
+        }
+    }
+
+    /**
+     * Calendario de epsilon: explora del todo los primeros 2500 episodios y
+     * baja en línea recta hasta 0.1, que alcanza en 'decayEpisodes'.
+     */
+    public static double epsilonAt(int episode, int decayEpisodes) {
+        double epsilon = 1.0;
+        if (episode > 2500) {
+            double progress = (double) (episode - 2500) / (decayEpisodes - 2500);
+            epsilon = 1.0 - (progress * 0.9);
+            if (epsilon < 0.1) epsilon = 0.1;
         }
+        return epsilon;
     }
 
     public static void main(String[] args) {
         QTraining trainer = new QTraining();
+        // "-parallel [hilos]" entrena todas las personas en todos los mapas a la vez
+        if (args.length > 0 && args[0].equals("-parallel")) {
+            int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            trainer.trainAllParallel(Persona.values(), threads);
+            return;
+        }
         trainer.trainAllMapsAndPersonas(Persona.TRYHARD);
     }
 }
\ No newline at end of file
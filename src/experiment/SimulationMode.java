@@ -10,6 +10,8 @@ import controllers.*;
 
 import dungeon.Dungeon;
 import dungeon.DungeonLoader;
+import dungeon.DungeonPaths;
+import dungeon.PathDataCache;
 import dungeon.play.PlayMap;
 import dungeon.visualization.PlayVisualizer;
 
@@ -42,6 +44,7 @@ public class SimulationMode {
 		} catch(Exception e){
 			System.out.println(e.toString());
 		}
+		DungeonPaths.setDiskCache(PathDataCache.getDefault());
 		Dungeon testDungeon = DungeonLoader.loadAsciiDungeon(asciiMap);
 		PlayMap testPlay = new PlayMap(testDungeon);
 		for(int i=0;i<totalRuns;i++){
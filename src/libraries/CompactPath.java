@@ -0,0 +1,102 @@
+package libraries;
+
+import ai.pathfinder.Node;
+import java.util.ArrayList;
+
+/**
+ * A path stored as tile indices (index = y*sizeX+x) with its length
+ * computed once. Tiles keep the order of the source path, so for paths
+ * produced by the Pathfinder the first tile is the target and the last
+ * tile is the source. None of the queries allocate.
+ */
+public class CompactPath {
+	final int[] tiles;
+	final int sizeX;
+	final float length;
+
+	public CompactPath(int[] tiles, int sizeX){
+		this.tiles = tiles;
+		this.sizeX = sizeX;
+		float result = 0.f;
+		for(int i=1;i<tiles.length;i++){
+			int dx = tiles[i]%sizeX-tiles[i-1]%sizeX;
+			int dy = tiles[i]/sizeX-tiles[i-1]/sizeX;
+			result = (float)(result+Math.sqrt(dx*dx+dy*dy));
+		}
+		this.length = result;
+	}
+
+	/** Converts a path of Pathfinder nodes, returning null for a null path. */
+	public static CompactPath fromNodes(ArrayList<?> path, int sizeX){
+		if(path==null){ return null; }
+		int[] tiles = new int[path.size()];
+		for(int i=0;i<tiles.length;i++){
+			Node n = (Node)(path.get(i));
+			tiles[i] = (int)(n.y)*sizeX+(int)(n.x);
+		}
+		return new CompactPath(tiles, sizeX);
+	}
+
+	public int size(){ return tiles.length; }
+	public int getTile(int i){ return tiles[i]; }
+	public int getX(int i){ return tiles[i]%sizeX; }
+	public int getY(int i){ return tiles[i]/sizeX; }
+	public int getStartTile(){ return tiles[0]; }
+	public int getEndTile(){ return tiles[tiles.length-1]; }
+
+	/** Same value as PathLibrary.calculateDistance on the equivalent node path. */
+	public float getLength(){ return length; }
+
+	public boolean hasStart(int x, int y){
+		return tiles.length>0 && tiles[0]==y*sizeX+x;
+	}
+	public boolean hasEnd(int x, int y){
+		return tiles.length>0 && tiles[tiles.length-1]==y*sizeX+x;
+	}
+	public boolean hasNode(int x, int y){
+		int tile = y*sizeX+x;
+		for(int i=0;i<tiles.length;i++){
+			if(tiles[i]==tile){ return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * Marks the path's tiles in a caller-provided [x][y] grid, including
+	 * both corners of diagonal steps, as PathLibrary.transformPath does.
+	 * The grid is not cleared first.
+	 */
+	public void rasterize(boolean[][] result){
+		for(int i=0;i<tiles.length;i++){
+			int x = tiles[i]%sizeX;
+			int y = tiles[i]/sizeX;
+			if(i<tiles.length-1){
+				int nextX = tiles[i+1]%sizeX;
+				int nextY = tiles[i+1]/sizeX;
+				if(x!=nextX && y!=nextY){
+					result[nextX][y]=true;
+					result[x][nextY]=true;
+				}
+			}
+			result[x][y]=true;
+		}
+	}
+
+	public ArrayList<Node> toNodes(){
+		ArrayList<Node> result = new ArrayList<Node>(tiles.length);
+		for(int i=0;i<tiles.length;i++){
+			result.add(new Node(tiles[i]%sizeX, tiles[i]/sizeX));
+		}
+		return result;
+	}
+
+	@Override
+	public String toString(){
+		StringBuilder result = new StringBuilder();
+		for(int i=0;i<tiles.length;i++){
+			result.append("(").append((float)(tiles[i]%sizeX)).append(",").append((float)(tiles[i]/sizeX)).append(")");
+			if(i<tiles.length-1){ result.append("->"); }
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,118 @@
+package libraries;
+
+import java.util.Arrays;
+
+/**
+ * Immutable 4-connected grid of passable tiles. Tiles are addressed by a
+ * single index laid out row by row (index = y*sizeX+x), the same order the
+ * Pathfinder uses for its cuboid nodes.
+ */
+public class GridGraph {
+	public final static int UP = 0;
+	public final static int RIGHT = 1;
+	public final static int DOWN = 2;
+	public final static int LEFT = 3;
+	public final static int UNREACHABLE = Integer.MAX_VALUE;
+
+	final int sizeX, sizeY;
+	final boolean[] passable;
+
+	/** @param passable passability indexed as [x][y], as returned by Dungeon.getPassableArray() */
+	public GridGraph(boolean[][] passable){
+		this.sizeX = passable.length;
+		this.sizeY = passable[0].length;
+		this.passable = new boolean[sizeX*sizeY];
+		for(int x=0;x<sizeX;x++){
+			for(int y=0;y<sizeY;y++){
+				this.passable[y*sizeX+x] = passable[x][y];
+			}
+		}
+	}
+
+	public int getSizeX(){ return sizeX; }
+	public int getSizeY(){ return sizeY; }
+	public int size(){ return passable.length; }
+
+	public int index(int x, int y){ return y*sizeX+x; }
+	public int getX(int index){ return index%sizeX; }
+	public int getY(int index){ return index/sizeX; }
+
+	public boolean isWithinBounds(int x, int y){
+		return (x>=0 && x<sizeX && y>=0 && y<sizeY);
+	}
+	public boolean isPassable(int x, int y){
+		return isWithinBounds(x,y) && passable[y*sizeX+x];
+	}
+	public boolean isPassable(int index){
+		return index>=0 && index<passable.length && passable[index];
+	}
+
+	/** The tile next to 'index' in the given direction, or -1 if it is outside the grid. */
+	public int neighbor(int index, int direction){
+		int x = index%sizeX;
+		int y = index/sizeX;
+		if(direction==UP){ y--; }
+		if(direction==RIGHT){ x++; }
+		if(direction==DOWN){ y++; }
+		if(direction==LEFT){ x--; }
+		if(!isWithinBounds(x,y)){ return -1; }
+		return y*sizeX+x;
+	}
+
+	public int manhattan(int a, int b){
+		return Math.abs(a%sizeX-b%sizeX)+Math.abs(a/sizeX-b/sizeX);
+	}
+	
+	/** BFS walking distance from 'source' to every tile, UNREACHABLE where there is no walk. */
+	public int[] distancesFrom(int source){
+		int[] result = new int[passable.length];
+		Arrays.fill(result, UNREACHABLE);
+		if(!isPassable(source)){ return result; }
+		int[] queue = new int[passable.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		result[source] = 0;
+		while(head<tail){
+			int u = queue[head++];
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u,dir);
+				if(v>=0 && passable[v] && result[v]==UNREACHABLE){
+					result[v] = result[u]+1;
+					queue[tail++] = v;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Flood fills the grid into 4-connected components.
+	 * @return a component id per tile, -1 for impassable tiles
+	 */
+	public int[] labelComponents(){
+		int[] result = new int[passable.length];
+		Arrays.fill(result, -1);
+		int[] queue = new int[passable.length];
+		int label = 0;
+		for(int seed=0;seed<passable.length;seed++){
+			if(!passable[seed] || result[seed]>=0){ continue; }
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = seed;
+			result[seed] = label;
+			while(head<tail){
+				int u = queue[head++];
+				for(int dir=0;dir<4;dir++){
+					int v = neighbor(u,dir);
+					if(v>=0 && passable[v] && result[v]<0){
+						result[v] = label;
+						queue[tail++] = v;
+					}
+				}
+			}
+			label++;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,234 @@
+package libraries;
+
+import java.util.Arrays;
+
+/**
+ * Search scratch for a GridGraph. The graph is never modified; everything a
+ * search writes (costs, parents, open list) lives in this object, so one
+ * GridSearch must not be shared between threads while a search runs.
+ * Paths are returned as tile indices ordered from the target back to the
+ * source, matching the order of Pathfinder.aStar().
+ */
+public class GridSearch {
+	GridGraph graph;
+
+	int[] g;
+	int[] parent;
+	int[] seen;
+	int[] closed;
+	byte[] arrival;
+	int stamp;
+
+	long[] heap;
+	int heapSize;
+
+	long expandedNodes;
+
+	static final byte ANY = -1;
+
+	public GridSearch(GridGraph graph){
+		this.graph = graph;
+		int tiles = graph.size();
+		g = new int[tiles];
+		parent = new int[tiles];
+		seen = new int[tiles];
+		closed = new int[tiles];
+		arrival = new byte[tiles];
+		heap = new long[64];
+	}
+
+	public GridGraph getGraph(){ return graph; }
+
+	/** Nodes taken off the open list by the last search. */
+	public long getExpandedNodes(){ return expandedNodes; }
+
+	// ----------------------------------------------------------------
+	// A*
+	// ----------------------------------------------------------------
+
+	/**
+	 * Plain A* over single steps. With landmarks the heuristic is the ALT 
+	 * bound, otherwise the Manhattan distance; both give shortest paths.
+	 * @return the path from 'to' back to 'from', or null if they are not connected
+	 */
+	public int[] aStar(int from, int to, LandmarkHeuristic landmarks){
+		if(!graph.isPassable(from) || !graph.isPassable(to)){ return null; }
+		startSearch(from);
+		int h = (landmarks==null) ? graph.manhattan(from,to) : landmarks.estimate(from,to);
+		if(h==LandmarkHeuristic.UNREACHABLE){ return null; }
+		push(from, h);
+		while(heapSize>0){
+			int u = pop();
+			if(closed[u]==stamp){ continue; }
+			closed[u] = stamp;
+			expandedNodes++;
+			if(u==to){ return reconstruct(from, to); }
+			for(int dir=0;dir<4;dir++){
+				int v = graph.neighbor(u,dir);
+				if(v<0 || !graph.isPassable(v) || closed[v]==stamp){ continue; }
+				int cost = g[u]+1;
+				if(seen[v]!=stamp || cost<g[v]){
+					seen[v] = stamp;
+					g[v] = cost;
+					parent[v] = u;
+					push(v, cost+((landmarks==null) ? graph.manhattan(v,to) : landmarks.estimate(v,to)));
+				}
+			}
+		}
+		return null;
+	}
+
+	// ----------------------------------------------------------------
+	// JUMP POINT SEARCH
+	// ----------------------------------------------------------------
+
+	/**
+	 * Jump Point Search for 4-connected grids. Canonical paths turn from a
+	 * vertical run into a horizontal one freely, but only leave a horizontal
+	 * run when a wall behind the current tile forces it, so straight runs
+	 * through open rooms are skipped instead of expanded tile by tile.
+	 * Returns the same path lengths as plain A*.
+	 * @return the path from 'to' back to 'from', or null if they are not connected
+	 */
+	public int[] jumpPointSearch(int from, int to){
+		if(!graph.isPassable(from) || !graph.isPassable(to)){ return null; }
+		startSearch(from);
+		arrival[from] = ANY;
+		push(from, graph.manhattan(from,to));
+		while(heapSize>0){
+			int u = pop();
+			if(closed[u]==stamp){ continue; }
+			closed[u] = stamp;
+			expandedNodes++;
+			if(u==to){ return reconstruct(from, to); }
+			for(int dir=0;dir<4;dir++){
+				if(!isSuccessorDirection(u, dir)){ continue; }
+				int jumpPoint = jump(u, dir, to);
+				if(jumpPoint<0 || closed[jumpPoint]==stamp){ continue; }
+				int cost = g[u]+graph.manhattan(u,jumpPoint);
+				if(seen[jumpPoint]!=stamp || cost<g[jumpPoint]){
+					seen[jumpPoint] = stamp;
+					g[jumpPoint] = cost;
+					parent[jumpPoint] = u;
+					arrival[jumpPoint] = (byte)dir;
+					push(jumpPoint, cost+graph.manhattan(jumpPoint,to));
+				}
+			}
+		}
+		return null;
+	}
+
+	boolean isSuccessorDirection(int u, int dir){
+		int in = arrival[u];
+		if(in==ANY){ return true; }
+		if(dir==(in+2)%4){ return false; }
+		if(in==GridGraph.UP || in==GridGraph.DOWN){ return true; }
+		if(dir==in){ return true; }
+		// leaving a horizontal run is only allowed through a forced neighbour
+		int x = graph.getX(u);
+		int y = graph.getY(u);
+		int dx = (in==GridGraph.RIGHT) ? 1 : -1;
+		int dy = (dir==GridGraph.DOWN) ? 1 : -1;
+		return graph.isPassable(x,y+dy) && !graph.isPassable(x-dx,y+dy);
+	}
+
+	int jump(int u, int dir, int to){
+		if(dir==GridGraph.LEFT || dir==GridGraph.RIGHT){
+			return jumpHorizontal(u, (dir==GridGraph.RIGHT) ? 1 : -1, to);
+		}
+		int dy = (dir==GridGraph.DOWN) ? 1 : -1;
+		int x = graph.getX(u);
+		int y = graph.getY(u);
+		while(true){
+			y += dy;
+			if(!graph.isPassable(x,y)){ return -1; }
+			int n = graph.index(x,y);
+			if(n==to){ return n; }
+			if(jumpHorizontal(n,1,to)>=0 || jumpHorizontal(n,-1,to)>=0){ return n; }
+		}
+	}
+
+	int jumpHorizontal(int u, int dx, int to){
+		int x = graph.getX(u);
+		int y = graph.getY(u);
+		while(true){
+			x += dx;
+			if(!graph.isPassable(x,y)){ return -1; }
+			int n = graph.index(x,y);
+			if(n==to){ return n; }
+			if(graph.isPassable(x,y-1) && !graph.isPassable(x-dx,y-1)){ return n; }
+			if(graph.isPassable(x,y+1) && !graph.isPassable(x-dx,y+1)){ return n; }
+		}
+	}
+
+	/** Expands the chain of jump points into every tile along the way. */
+	int[] reconstruct(int from, int to){
+		int[] result = new int[g[to]+1];
+		int pos = 0;
+		int curr = to;
+		result[pos++] = curr;
+		while(curr!=from){
+			int prev = parent[curr];
+			int stepX = Integer.signum(graph.getX(prev)-graph.getX(curr));
+			int stepY = Integer.signum(graph.getY(prev)-graph.getY(curr));
+			int x = graph.getX(curr);
+			int y = graph.getY(curr);
+			while(curr!=prev){
+				x += stepX;
+				y += stepY;
+				curr = graph.index(x,y);
+				result[pos++] = curr;
+			}
+		}
+		return result;
+	}
+
+	// ----------------------------------------------------------------
+	// SCRATCH
+	// ----------------------------------------------------------------
+
+	void startSearch(int from){
+		expandedNodes = 0;
+		heapSize = 0;
+		stamp++;
+		if(stamp==Integer.MAX_VALUE){
+			Arrays.fill(seen, 0);
+			Arrays.fill(closed, 0);
+			stamp = 1;
+		}
+		seen[from] = stamp;
+		g[from] = 0;
+		parent[from] = -1;
+	}
+
+	// open list entries pack the f value above the tile index, so equal
+	// f values pop in tile order and searches stay deterministic
+	void push(int tile, int f){
+		if(heapSize==heap.length){ heap = Arrays.copyOf(heap, heap.length*2); }
+		long entry = ((long)f<<32) | tile;
+		int pos = heapSize++;
+		while(pos>0){
+			int up = (pos-1)/2;
+			if(heap[up]<=entry){ break; }
+			heap[pos] = heap[up];
+			pos = up;
+		}
+		heap[pos] = entry;
+	}
+
+	int pop(){
+		long top = heap[0];
+		long last = heap[--heapSize];
+		int pos = 0;
+		while(true){
+			int child = 2*pos+1;
+			if(child>=heapSize){ break; }
+			if(child+1<heapSize && heap[child+1]<heap[child]){ child++; }
+			if(heap[child]>=last){ break; }
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = last;
+		return (int)top;
+	}
+}
@@ -0,0 +1,243 @@
+package libraries;
+
+import java.util.Arrays;
+
+/**
+ * Abstract graph for hierarchical pathfinding (HPA*). The grid is split into
+ * square clusters; wherever two neighbouring clusters share an open border,
+ * entrance tiles are placed on both sides, and the walking distance between
+ * every pair of entrances of a cluster is precomputed inside that cluster.
+ * Tile edits only mark the clusters they touch, which are rebuilt on the
+ * next refresh(). Searches run in HierarchicalSearch.
+ */
+public final class HierarchicalGraph {
+	public final static int UNREACHABLE = Integer.MAX_VALUE;
+	public final static int DEFAULT_CLUSTER_SIZE = 10;
+	// open border runs up to this length get one entrance in the middle, longer runs one at each end
+	final static int MAX_SINGLE_ENTRANCE = 6;
+
+	final int sizeX, sizeY;
+	final int clusterSize, clustersX, clustersY;
+	final boolean[] passable;
+
+	int[][] entrances;
+	int[][] intraCost;
+	final int[] entranceSlot;
+	final boolean[] dirty;
+	volatile boolean anyDirty;
+	long rebuiltClusters;
+
+	// scratch for rebuilding clusters
+	int[] dist, queue, seen;
+	int stamp;
+
+	/** @param passable passability indexed as [x][y], as returned by Dungeon.getPassableArray() */
+	public HierarchicalGraph(boolean[][] passable, int clusterSize){
+		this.sizeX = passable.length;
+		this.sizeY = passable[0].length;
+		this.clusterSize = clusterSize;
+		this.clustersX = (sizeX+clusterSize-1)/clusterSize;
+		this.clustersY = (sizeY+clusterSize-1)/clusterSize;
+		this.passable = new boolean[sizeX*sizeY];
+		for(int x=0;x<sizeX;x++){
+			for(int y=0;y<sizeY;y++){
+				this.passable[y*sizeX+x] = passable[x][y];
+			}
+		}
+		entrances = new int[clustersX*clustersY][];
+		intraCost = new int[clustersX*clustersY][];
+		entranceSlot = new int[sizeX*sizeY];
+		Arrays.fill(entranceSlot, -1);
+		dirty = new boolean[clustersX*clustersY];
+		Arrays.fill(dirty, true);
+		anyDirty = true;
+		dist = new int[sizeX*sizeY];
+		queue = new int[clusterSize*clusterSize];
+		seen = new int[sizeX*sizeY];
+		refresh();
+	}
+
+	public int getSizeX(){ return sizeX; }
+	public int getSizeY(){ return sizeY; }
+	public int getClusterSize(){ return clusterSize; }
+	public int getClusterCount(){ return dirty.length; }
+
+	/** Clusters rebuilt since this graph was created, including the initial build. */
+	public long getRebuiltClusters(){ return rebuiltClusters; }
+
+	public boolean isPassable(int index){
+		return index>=0 && index<passable.length && passable[index];
+	}
+
+	public int clusterOf(int index){
+		return (index/sizeX/clusterSize)*clustersX+(index%sizeX)/clusterSize;
+	}
+
+	/**
+	 * Changes one tile and marks its cluster dirty, together with any
+	 * neighbouring cluster whose shared border runs through the tile.
+	 */
+	public synchronized void setPassable(int x, int y, boolean value){
+		if(x<0 || x>=sizeX || y<0 || y>=sizeY){ return; }
+		int index = y*sizeX+x;
+		if(passable[index]==value){ return; }
+		passable[index] = value;
+		int cx = x/clusterSize;
+		int cy = y/clusterSize;
+		markDirty(cx, cy);
+		if(x%clusterSize==0){ markDirty(cx-1, cy); }
+		if(x%clusterSize==clusterSize-1){ markDirty(cx+1, cy); }
+		if(y%clusterSize==0){ markDirty(cx, cy-1); }
+		if(y%clusterSize==clusterSize-1){ markDirty(cx, cy+1); }
+	}
+
+	/**
+	 * Applies every difference between this graph and the given [x][y]
+	 * passability, so edits made without setPassable() are picked up too.
+	 * @return the number of tiles that changed
+	 */
+	public synchronized int sync(boolean[][] passable){
+		int result = 0;
+		for(int x=0;x<sizeX;x++){
+			for(int y=0;y<sizeY;y++){
+				if(this.passable[y*sizeX+x]!=passable[x][y]){
+					setPassable(x, y, passable[x][y]);
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+
+	void markDirty(int cx, int cy){
+		if(cx<0 || cx>=clustersX || cy<0 || cy>=clustersY){ return; }
+		dirty[cy*clustersX+cx] = true;
+		anyDirty = true;
+	}
+
+	public boolean isDirty(){ return anyDirty; }
+
+	/** Rebuilds the entrances and entrance-to-entrance costs of every dirty cluster. */
+	public void refresh(){
+		// queries call this every time, so the clean case must not take the lock
+		if(!anyDirty){ return; }
+		rebuildDirty();
+	}
+
+	synchronized void rebuildDirty(){
+		if(!anyDirty){ return; }
+		// entrances first: a cluster's costs depend only on its own entrances
+		for(int c=0;c<dirty.length;c++){
+			if(dirty[c]){ buildEntrances(c); }
+		}
+		for(int c=0;c<dirty.length;c++){
+			if(dirty[c]){
+				buildCosts(c);
+				dirty[c] = false;
+				rebuiltClusters++;
+			}
+		}
+		anyDirty = false;
+	}
+
+	void buildEntrances(int cluster){
+		if(entrances[cluster]!=null){
+			for(int i=0;i<entrances[cluster].length;i++){ entranceSlot[entrances[cluster][i]] = -1; }
+		}
+		int x0 = (cluster%clustersX)*clusterSize;
+		int y0 = (cluster/clustersX)*clusterSize;
+		int x1 = Math.min(x0+clusterSize, sizeX);
+		int y1 = Math.min(y0+clusterSize, sizeY);
+		int[] buffer = new int[4*clusterSize];
+		int count = 0;
+		if(x0>0){ count = addBorder(buffer, count, y0*sizeX+x0, -1, sizeX, y1-y0); }
+		if(x1<sizeX){ count = addBorder(buffer, count, y0*sizeX+x1-1, 1, sizeX, y1-y0); }
+		if(y0>0){ count = addBorder(buffer, count, y0*sizeX+x0, -sizeX, 1, x1-x0); }
+		if(y1<sizeY){ count = addBorder(buffer, count, (y1-1)*sizeX+x0, sizeX, 1, x1-x0); }
+		entrances[cluster] = Arrays.copyOf(buffer, count);
+	}
+
+	/**
+	 * Scans one border of a cluster and adds entrances for each run of tiles
+	 * open on both sides. Both clusters sharing the border scan the same run
+	 * positions, so their entrances always face each other.
+	 */
+	int addBorder(int[] buffer, int count, int first, int outside, int step, int length){
+		int runStart = -1;
+		for(int i=0;i<=length;i++){
+			int tile = first+i*step;
+			boolean open = (i<length) && passable[tile] && passable[tile+outside];
+			if(open && runStart<0){ runStart = i; }
+			if(!open && runStart>=0){
+				int runLength = i-runStart;
+				if(runLength<=MAX_SINGLE_ENTRANCE){
+					count = addEntrance(buffer, count, first+(runStart+runLength/2)*step);
+				} else {
+					count = addEntrance(buffer, count, first+runStart*step);
+					count = addEntrance(buffer, count, first+(i-1)*step);
+				}
+				runStart = -1;
+			}
+		}
+		return count;
+	}
+
+	int addEntrance(int[] buffer, int count, int tile){
+		// corner tiles can be entrances on two borders
+		if(entranceSlot[tile]>=0){ return count; }
+		entranceSlot[tile] = count;
+		buffer[count] = tile;
+		return count+1;
+	}
+
+	void buildCosts(int cluster){
+		int[] list = entrances[cluster];
+		int[] costs = new int[list.length*list.length];
+		for(int i=0;i<list.length;i++){
+			stamp++;
+			clusterBfs(list[i], dist, null, seen, stamp, queue);
+			for(int j=0;j<list.length;j++){
+				costs[i*list.length+j] = (seen[list[j]]==stamp) ? dist[list[j]] : UNREACHABLE;
+			}
+		}
+		intraCost[cluster] = costs;
+	}
+
+	/**
+	 * Breadth-first search from 'source' that never leaves its cluster.
+	 * Reached tiles get seen[tile]==stamp, their distance in 'dist' and, if
+	 * 'parent' is not null, the previous tile towards the source.
+	 */
+	void clusterBfs(int source, int[] dist, int[] parent, int[] seen, int stamp, int[] queue){
+		int x0 = (source%sizeX)/clusterSize*clusterSize;
+		int y0 = (source/sizeX)/clusterSize*clusterSize;
+		int x1 = Math.min(x0+clusterSize, sizeX);
+		int y1 = Math.min(y0+clusterSize, sizeY);
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = source;
+		seen[source] = stamp;
+		dist[source] = 0;
+		if(parent!=null){ parent[source] = -1; }
+		while(head<tail){
+			int u = queue[head++];
+			int x = u%sizeX;
+			int y = u/sizeX;
+			for(int dir=0;dir<4;dir++){
+				int vx = x;
+				int vy = y;
+				if(dir==GridGraph.UP){ vy--; }
+				if(dir==GridGraph.RIGHT){ vx++; }
+				if(dir==GridGraph.DOWN){ vy++; }
+				if(dir==GridGraph.LEFT){ vx--; }
+				if(vx<x0 || vx>=x1 || vy<y0 || vy>=y1){ continue; }
+				int v = vy*sizeX+vx;
+				if(!passable[v] || seen[v]==stamp){ continue; }
+				seen[v] = stamp;
+				dist[v] = dist[u]+1;
+				if(parent!=null){ parent[v] = u; }
+				queue[tail++] = v;
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package libraries;
+
+import java.util.Arrays;
+
+/**
+ * Search scratch for a HierarchicalGraph. A query connects the start and
+ * goal tiles to the entrances of their clusters, runs A* over the abstract
+ * entrance graph and then refines each abstract edge into tiles with a
+ * search confined to one cluster. Paths are near-optimal rather than
+ * shortest, and are returned ordered from the target back to the source
+ * like GridSearch. One HierarchicalSearch must not be shared between threads
+ * while a search runs; the graph itself can be.
+ */
+public class HierarchicalSearch {
+	HierarchicalGraph graph;
+
+	int[] g;
+	int[] parent;
+	int[] seen;
+	int[] closed;
+	int stamp;
+
+	int[] startDist, startParent, startSeen;
+	int[] goalDist, goalParent, goalSeen;
+	int[] segmentDist, segmentParent, segmentSeen;
+	int segmentStamp;
+	int[] queue;
+
+	long[] heap;
+	int heapSize;
+
+	long expandedNodes;
+
+	public HierarchicalSearch(HierarchicalGraph graph){
+		this.graph = graph;
+		int tiles = graph.sizeX*graph.sizeY;
+		g = new int[tiles];
+		parent = new int[tiles];
+		seen = new int[tiles];
+		closed = new int[tiles];
+		startDist = new int[tiles];
+		startParent = new int[tiles];
+		startSeen = new int[tiles];
+		goalDist = new int[tiles];
+		goalParent = new int[tiles];
+		goalSeen = new int[tiles];
+		segmentDist = new int[tiles];
+		segmentParent = new int[tiles];
+		segmentSeen = new int[tiles];
+		queue = new int[graph.clusterSize*graph.clusterSize];
+		heap = new long[64];
+	}
+
+	public HierarchicalGraph getGraph(){ return graph; }
+
+	/** Abstract nodes taken off the open list by the last search. */
+	public long getExpandedNodes(){ return expandedNodes; }
+
+	/** @return the path from 'to' back to 'from', or null if none was found */
+	public int[] findPath(int from, int to){
+		if(!graph.isPassable(from) || !graph.isPassable(to)){ return null; }
+		graph.refresh();
+		expandedNodes = 0;
+		heapSize = 0;
+		nextStamp();
+		int startCluster = graph.clusterOf(from);
+		int goalCluster = graph.clusterOf(to);
+		graph.clusterBfs(from, startDist, startParent, startSeen, stamp, queue);
+		graph.clusterBfs(to, goalDist, goalParent, goalSeen, stamp, queue);
+
+		int best = HierarchicalGraph.UNREACHABLE;
+		// entrance the goal was reached from, -1 for a path that stays in one cluster
+		int lastEntrance = -1;
+		if(startCluster==goalCluster && goalSeen[from]==stamp){ best = goalDist[from]; }
+
+		int[] startEntrances = graph.entrances[startCluster];
+		for(int i=0;i<startEntrances.length;i++){
+			int e = startEntrances[i];
+			if(startSeen[e]==stamp){ relax(e, startDist[e], -1, to); }
+		}
+		while(heapSize>0){
+			long entry = pop();
+			int u = (int)entry;
+			if((int)(entry>>>32)>=best){ break; }
+			if(closed[u]==stamp){ continue; }
+			closed[u] = stamp;
+			expandedNodes++;
+			int cluster = graph.clusterOf(u);
+			if(cluster==goalCluster && goalSeen[u]==stamp && g[u]+goalDist[u]<best){
+				best = g[u]+goalDist[u];
+				lastEntrance = u;
+			}
+			int[] list = graph.entrances[cluster];
+			int[] costs = graph.intraCost[cluster];
+			int row = graph.entranceSlot[u]*list.length;
+			for(int j=0;j<list.length;j++){
+				if(costs[row+j]!=HierarchicalGraph.UNREACHABLE){ relax(list[j], g[u]+costs[row+j], u, to); }
+			}
+			for(int dir=0;dir<4;dir++){
+				int v = neighbor(u, dir);
+				if(v>=0 && graph.entranceSlot[v]>=0 && graph.clusterOf(v)!=cluster){ relax(v, g[u]+1, u, to); }
+			}
+		}
+		if(best==HierarchicalGraph.UNREACHABLE){ return null; }
+		return refine(from, to, lastEntrance, best);
+	}
+
+	void relax(int tile, int cost, int from, int to){
+		if(closed[tile]==stamp){ return; }
+		if(seen[tile]!=stamp || cost<g[tile]){
+			seen[tile] = stamp;
+			g[tile] = cost;
+			parent[tile] = from;
+			push(tile, cost+manhattan(tile,to));
+		}
+	}
+
+	/** Expands the abstract path into tiles, built from the source forward and then reversed. */
+	int[] refine(int from, int to, int lastEntrance, int length){
+		int[] result = new int[length+1];
+		if(lastEntrance<0){
+			append(result, 0, from, goalParent, false);
+		} else {
+			int hops = 0;
+			for(int e=lastEntrance;e!=-1;e=parent[e]){ hops++; }
+			int[] chain = new int[hops];
+			for(int e=lastEntrance;e!=-1;e=parent[e]){ chain[--hops] = e; }
+			int pos = append(result, 0, chain[0], startParent, true);
+			for(int i=1;i<chain.length;i++){
+				if(graph.clusterOf(chain[i-1])!=graph.clusterOf(chain[i])){
+					result[pos++] = chain[i];
+				} else {
+					graph.clusterBfs(chain[i], segmentDist, segmentParent, segmentSeen, nextSegmentStamp(), queue);
+					pos = append(result, pos-1, chain[i-1], segmentParent, false);
+				}
+			}
+			append(result, pos-1, chain[chain.length-1], goalParent, false);
+		}
+		for(int i=0, j=result.length-1;i<j;i++, j--){
+			int swap = result[i];
+			result[i] = result[j];
+			result[j] = swap;
+		}
+		return result;
+	}
+
+	/** Writes the walk from 'tile' along 'parents' to its search source, optionally reversed. */
+	int append(int[] result, int pos, int tile, int[] parents, boolean reversed){
+		int length = 0;
+		for(int t=tile;t!=-1;t=parents[t]){ length++; }
+		int i = reversed ? pos+length-1 : pos;
+		for(int t=tile;t!=-1;t=parents[t]){
+			result[i] = t;
+			i += reversed ? -1 : 1;
+		}
+		return pos+length;
+	}
+
+	int neighbor(int index, int direction){
+		int x = index%graph.sizeX;
+		int y = index/graph.sizeX;
+		if(direction==GridGraph.UP){ y--; }
+		if(direction==GridGraph.RIGHT){ x++; }
+		if(direction==GridGraph.DOWN){ y++; }
+		if(direction==GridGraph.LEFT){ x--; }
+		if(x<0 || x>=graph.sizeX || y<0 || y>=graph.sizeY){ return -1; }
+		return y*graph.sizeX+x;
+	}
+
+	int manhattan(int a, int b){
+		return Math.abs(a%graph.sizeX-b%graph.sizeX)+Math.abs(a/graph.sizeX-b/graph.sizeX);
+	}
+
+	// ----------------------------------------------------------------
+	// SCRATCH
+	// ----------------------------------------------------------------
+
+	void nextStamp(){
+		stamp++;
+		if(stamp==Integer.MAX_VALUE){
+			Arrays.fill(seen, 0);
+			Arrays.fill(closed, 0);
+			Arrays.fill(startSeen, 0);
+			Arrays.fill(goalSeen, 0);
+			stamp = 1;
+		}
+	}
+
+	int nextSegmentStamp(){
+		segmentStamp++;
+		if(segmentStamp==Integer.MAX_VALUE){
+			Arrays.fill(segmentSeen, 0);
+			segmentStamp = 1;
+		}
+		return segmentStamp;
+	}
+
+	void push(int tile, int f){
+		if(heapSize==heap.length){ heap = Arrays.copyOf(heap, heap.length*2); }
+		long entry = ((long)f<<32) | tile;
+		int pos = heapSize++;
+		while(pos>0){
+			int up = (pos-1)/2;
+			if(heap[up]<=entry){ break; }
+			heap[pos] = heap[up];
+			pos = up;
+		}
+		heap[pos] = entry;
+	}
+
+	long pop(){
+		long top = heap[0];
+		long last = heap[--heapSize];
+		int pos = 0;
+		while(true){
+			int child = 2*pos+1;
+			if(child>=heapSize){ break; }
+			if(child+1<heapSize && heap[child+1]<heap[child]){ child++; }
+			if(heap[child]>=last){ break; }
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = last;
+		return top;
+	}
+}
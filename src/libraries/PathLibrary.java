@@ -5,9 +5,12 @@ import ai.pathfinder.Pathfinder;
 import java.util.ArrayList;
 import java.util.Vector;
 import util.math2d.Point2D;
-import util.math2d.Vector2D;
 
 public class PathLibrary {
+	static PathfinderCache cache = new PathfinderCache(16);
+	
+	public static PathfinderCache getCache(){ return cache; }
+	
 	static public Pathfinder init(boolean[][] map){
 		Pathfinder result = new Pathfinder();
 		int spacing = 1;
@@ -33,10 +36,7 @@ public class PathLibrary {
 		return getPath((int)(p1.x),(int)(p1.y),(int)(p2.x),(int)(p2.y), map);
 	}
 	static public ArrayList getPath(int x1,int y1,int x2,int y2, boolean[][] map){ 
-		Pathfinder pf = init(map);
-		Node start = findNode(x1,y1,pf);
-		Node end = findNode(x2,y2,pf);
-		ArrayList result = pf.aStar(findNode(x1,y1,pf),findNode(x2,y2,pf));
+		ArrayList result = cache.get(map).aStar(x1,y1,x2,y2);
 		if(	hasStart(result,x2,y2) && hasEnd(result,x1,y1) ){ 
 			return result;
 		}
@@ -69,6 +69,16 @@ public class PathLibrary {
 		return false;
 	}
 	
+	public static boolean hasStart(CompactPath path, int x, int y){
+		return path!=null && path.hasStart(x,y);
+	}
+	public static boolean hasNode(CompactPath path, int x, int y){
+		return path!=null && path.hasNode(x,y);
+	}
+	public static boolean hasEnd(CompactPath path, int x, int y){
+		return path!=null && path.hasEnd(x,y);
+	}
+	
 	public static Vector<Point2D> transformPath(ArrayList path){
 		Vector<Point2D> result = new Vector<Point2D>();
 		for(int i=0;i<path.size();i++){
@@ -97,14 +107,25 @@ public class PathLibrary {
 		for(int i=1;i<path.size();i++){
 			Node curr = (Node)(path.get(i));
 			Node prev = (Node)(path.get(i-1));
-			result += Vector2D.euclidianDistance(new Point2D(curr.x,curr.y), new Point2D(prev.x,prev.y));
+			double diff_x = curr.x-prev.x;
+			double diff_y = curr.y-prev.y;
+			result += Math.sqrt(diff_x*diff_x+diff_y*diff_y);
 		}
 		return result;
 	}
+	public static float calculateDistance(CompactPath path){
+		return path.getLength();
+	}
 	
 	public static boolean[][] transformPath(ArrayList base, int sizeX, int sizeY){
 		return transformPath(transformPath(base),sizeX,sizeY);
 	}
+	public static boolean[][] transformPath(CompactPath base, int sizeX, int sizeY){
+		if(base==null || base.size()==0){ return null; }
+		boolean[][] result = new boolean[sizeX][sizeY];
+		base.rasterize(result);
+		return result;
+	}
 	public static boolean[][] transformPath(Vector<Point2D> base, int sizeX, int sizeY){
 		if(base==null || base.size()==0){ return null; }
 		boolean[][] result = new boolean[sizeX][sizeY];
@@ -0,0 +1,121 @@
+package libraries;
+
+import ai.pathfinder.Node;
+import ai.pathfinder.Pathfinder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded cache of prepared pathfinding graphs, keyed by a content hash of
+ * the boolean[][] grid they were built from. The least recently used graph
+ * is evicted once the capacity is exceeded.
+ */
+public class PathfinderCache {
+	int capacity;
+	long hits;
+	long misses;
+	LinkedHashMap<Long,Entry> entries;
+
+	public PathfinderCache(int capacity){
+		this.capacity = Math.max(1, capacity);
+		this.entries = new LinkedHashMap<Long,Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the prepared graph for the given grid, building it on a miss.
+	 * The grid is copied, so later changes to the caller's array do not
+	 * leak into the cached graph.
+	 */
+	public synchronized Entry get(boolean[][] map){
+		long key = contentHash(map);
+		Entry entry = entries.get(key);
+		if(entry!=null && Arrays.deepEquals(entry.map, map)){
+			hits++;
+			return entry;
+		}
+		misses++;
+		entry = new Entry(map);
+		entries.put(key, entry);
+		if(entries.size()>capacity){
+			Iterator<Long> eldest = entries.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+		return entry;
+	}
+
+	public synchronized long getHits(){ return hits; }
+	public synchronized long getMisses(){ return misses; }
+	public synchronized int size(){ return entries.size(); }
+	public synchronized int getCapacity(){ return capacity; }
+
+	public synchronized void setCapacity(int capacity){
+		this.capacity = Math.max(1, capacity);
+		Iterator<Long> eldest = entries.keySet().iterator();
+		while(entries.size()>this.capacity){
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+	/** 64-bit FNV-1a hash over the grid dimensions and every cell. */
+	public static long contentHash(boolean[][] map){
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ map.length) * 0x100000001b3L;
+		for(int x=0;x<map.length;x++){
+			hash = (hash ^ map[x].length) * 0x100000001b3L;
+			for(int y=0;y<map[x].length;y++){
+				hash = (hash ^ (map[x][y] ? 1 : 0)) * 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * A prepared graph. The Pathfinder keeps its search state inside the
+	 * nodes, so searches on one entry must hold its lock.
+	 */
+	public static class Entry {
+		final boolean[][] map;
+		final Pathfinder pathfinder;
+		final Node[] grid;
+		final int sizeX, sizeY;
+
+		Entry(boolean[][] map){
+			this.map = new boolean[map.length][];
+			for(int x=0;x<map.length;x++){
+				this.map[x] = Arrays.copyOf(map[x], map[x].length);
+			}
+			this.sizeX = map.length;
+			this.sizeY = map[0].length;
+			this.pathfinder = PathLibrary.init(this.map);
+			// setCuboidNodes lays the nodes out row by row
+			this.grid = new Node[sizeX*sizeY];
+			for(Object temp : pathfinder.nodes){
+				Node n = (Node)temp;
+				grid[(int)(n.y)*sizeX+(int)(n.x)] = n;
+			}
+		}
+
+		public Pathfinder getPathfinder(){ return pathfinder; }
+
+		public Node findNode(int x, int y){
+			if(x<0 || x>=sizeX || y<0 || y>=sizeY){ return null; }
+			return grid[y*sizeX+x];
+		}
+
+		@SuppressWarnings("unchecked")
+		public synchronized ArrayList<Node> aStar(int x1, int y1, int x2, int y2){
+			// the library predates generics; its paths only ever hold Nodes
+			return (ArrayList<Node>)pathfinder.aStar(findNode(x1,y1),findNode(x2,y2));
+		}
+	}
+}